@@ -0,0 +1,284 @@
+package mahjong;
+
+/** Packed occupancy of a board, one bit per cell of its layout (See Position).
+ * Each level is stored row by row and every row takes up a whole number of 64-bit words, so
+ * that checks across an entire row can be done with a few shifts and masks rather than by
+ * visiting the cells one at a time. Bit x of a row stands for the cell with x-coordinate x.
+ */
+public class BitBoard {
+	/** Number of bits in a word. */
+	private static final int WORDBITS = 64;
+
+	/** Dimensions of the board, measured in terms of half tile (width) length. */
+	private final int width;
+	/** Dimensions of the board, measured in terms of half tile (height) length. */
+	private final int height;
+	/** Depth of the board in terms of layers. */
+	private final int depth;
+	/** Number of words used for a single row. */
+	private final int words;
+
+	/** Occupancy bits, laid out level by level and then row by row. */
+	private final long[] bits;
+
+	/** Constructs an empty bitboard with the given dimensions.
+	 * @param width Width of the board.
+	 * @param height Height of the board.
+	 * @param depth Depth of the board.
+	 */
+	public BitBoard(int width, int height, int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.words = (width + WORDBITS - 1) / WORDBITS;
+		/* An empty level is kept above the top one, so that checking whether a tile is
+		 * covered needs no bounds check. */
+		this.bits = new long[(depth + 1) * height * this.words];
+	}
+
+	/** Copy constructor.
+	 * @param b Bitboard to copy.
+	 */
+	public BitBoard(BitBoard b) {
+		this.width = b.width;
+		this.height = b.height;
+		this.depth = b.depth;
+		this.words = b.words;
+		this.bits = b.bits.clone();
+	}
+
+	/** Index of the first word of the given row. Tiles are checked by the offset of the
+	 * first of their two rows, which callers may work out once and keep.
+	 * @param y y-coordinate of the row.
+	 * @param z z-coordinate of the row.
+	 * @return Offset of the row in the bits array.
+	 */
+	protected int row(int y, int z) {
+		return (z * this.height + y) * this.words;
+	}
+
+	/** Marks the block of four cells taken up by a tile as occupied.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 */
+	protected void setTile(int r, int x) {
+		if (this.words == 1) {
+			this.bits[r] |= 3L << x;
+			this.bits[r + 1] |= 3L << x;
+			return;
+		}
+		this.setPair(r, x);
+		this.setPair(r + this.words, x);
+	}
+
+	/** Marks the block of four cells taken up by a tile as empty.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 */
+	protected void clearTile(int r, int x) {
+		if (this.words == 1) {
+			this.bits[r] &= ~(3L << x);
+			this.bits[r + 1] &= ~(3L << x);
+			return;
+		}
+		this.clearPair(r, x);
+		this.clearPair(r + this.words, x);
+	}
+
+	/** Marks the first cell of a tile, i.e. its top left corner, as occupied. Used when the
+	 * bitboard keeps track of the positions of the tiles rather than of the cells they cover.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 */
+	protected void setCell(int r, int x) {
+		this.bits[r + x / WORDBITS] |= 1L << x;
+	}
+
+	/** Marks two adjacent cells of a row as occupied.
+	 * @param r Offset of the row in the bits array.
+	 * @param x x-coordinate of the first cell.
+	 */
+	private void setPair(int r, int x) {
+		this.bits[r + x / WORDBITS] |= 1L << x;
+		this.bits[r + (x + 1) / WORDBITS] |= 1L << (x + 1);
+	}
+
+	/** Marks two adjacent cells of a row as empty.
+	 * @param r Offset of the row in the bits array.
+	 * @param x x-coordinate of the first cell.
+	 */
+	private void clearPair(int r, int x) {
+		this.bits[r + x / WORDBITS] &= ~(1L << x);
+		this.bits[r + (x + 1) / WORDBITS] &= ~(1L << (x + 1));
+	}
+
+	/** Checks whether a tile is covered, completely or partially, by a tile on the level
+	 * above, i.e. whether either of the two rows above it has a bit in its two columns.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 * @return true if any of the four cells above the tile is occupied.
+	 */
+	protected boolean isCovered(int r, int x) {
+		int up = r + this.height * this.words;
+		return this.anyPair(up, x) || this.anyPair(up + this.words, x);
+	}
+
+	/** Checks whether a tile has a neighbour on its left.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 * @return true if a cell directly left of the tile is occupied.
+	 */
+	protected boolean isBlockedLeft(int r, int x) {
+		return (x > 0) && (this.test(r, x - 1) || this.test(r + this.words, x - 1));
+	}
+
+	/** Checks whether a tile has a neighbour on its right.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 * @return true if a cell directly right of the tile is occupied.
+	 */
+	protected boolean isBlockedRight(int r, int x) {
+		return (x + 2 < this.width) && (this.test(r, x + 2) || this.test(r + this.words, x + 2));
+	}
+
+	/** Checks whether a tile is free, i.e. it is not covered and it is not blocked on both
+	 * sides.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 * @return true if the tile at the given position could be removed.
+	 */
+	protected boolean isFree(int r, int x) {
+		if (this.words == 1) {
+			return this.isFree(r, x, this.bits[r] | this.bits[r + 1]);
+		}
+		return !this.isCovered(r, x) && !(this.isBlockedLeft(r, x) && this.isBlockedRight(r, x));
+	}
+
+	/** Checks whether a tile is free when rows fit in a single word, so that both rows of the
+	 * tile, and both rows above it, are checked at once.
+	 * @param r Offset of the tile's first row (See row()).
+	 * @param x x-coordinate of the tile.
+	 * @param cells Union of the tile's two rows.
+	 * @return true if the tile at the given position could be removed.
+	 */
+	private boolean isFree(int r, int x, long cells) {
+		int up = r + this.height;
+		if (((this.bits[up] | this.bits[up + 1]) & (3L << x)) != 0) {
+			return false;
+		}
+		return (x == 0) || ((cells & (1L << (x - 1))) == 0)
+			|| (x + 2 >= WORDBITS) || ((cells & (1L << (x + 2))) == 0);
+	}
+
+	/** Checks a single cell of a row.
+	 * @param r Offset of the row in the bits array.
+	 * @param x x-coordinate of the cell, within the board.
+	 * @return true if the cell is occupied.
+	 */
+	private boolean test(int r, int x) {
+		return (this.bits[r + x / WORDBITS] & (1L << x)) != 0;
+	}
+
+	/** Checks two adjacent cells of a row at once, with a single mask unless they straddle
+	 * two words.
+	 * @param r Offset of the row in the bits array.
+	 * @param x x-coordinate of the first cell, the second being within the board.
+	 * @return true if either cell is occupied.
+	 */
+	private boolean anyPair(int r, int x) {
+		int i = r + x / WORDBITS;
+		if (x % WORDBITS != WORDBITS - 1) {
+			return (this.bits[i] & (3L << x)) != 0;
+		}
+		return (this.bits[i] < 0) || ((this.bits[i + 1] & 1L) != 0);
+	}
+
+	/** Computes the positions of all free tiles at once. The result has a bit set for the
+	 * top left cell of every free tile, and is computed a row at a time: a tile is covered if
+	 * the level above has a bit in its two columns, blocked on the left if its own level has a
+	 * bit one column to the left, and blocked on the right if it has a bit two columns to the
+	 * right.
+	 * @param anchors Bitboard with the top left cell of every tile on the board set.
+	 * @param out Bitboard to which the result is written.
+	 */
+	public void freeMask(BitBoard anchors, BitBoard out) {
+		long[] cells = new long[this.words];
+		long[] above = new long[this.words];
+		long[] shifted = new long[this.words];
+		long[] left = new long[this.words];
+		long[] right = new long[this.words];
+
+		for (int z = 0; z < this.depth; z++) {
+			for (int y = 0; y < this.height; y++) {
+				int r = row(y, z);
+				/* A tile anchored in this row also covers the row below it. */
+				for (int i = 0; i < this.words; i++) {
+					cells[i] = this.bits[r + i];
+					if (y + 1 < this.height) cells[i] |= this.bits[r + this.words + i];
+					above[i] = 0L;
+					if (z + 1 < this.depth) {
+						int ra = row(y, z + 1);
+						above[i] = this.bits[ra + i];
+						if (y + 1 < this.height) above[i] |= this.bits[ra + this.words + i];
+					}
+				}
+				shiftDown(above, 1, shifted);
+				shiftUp(cells, 1, left);
+				shiftDown(cells, 2, right);
+				for (int i = 0; i < this.words; i++) {
+					long covered = above[i] | shifted[i];
+					out.bits[r + i] = anchors.bits[r + i] & ~covered & ~(left[i] & right[i]);
+				}
+			}
+		}
+	}
+
+	/** Shifts a multi-word row towards lower x-coordinates.
+	 * @param a Row to shift.
+	 * @param n Number of cells to shift by (less than a word).
+	 * @param out Array to write the result to.
+	 */
+	private static void shiftDown(long[] a, int n, long[] out) {
+		for (int i = 0; i < a.length; i++) {
+			out[i] = a[i] >>> n;
+			if (i + 1 < a.length) out[i] |= a[i + 1] << (WORDBITS - n);
+		}
+	}
+
+	/** Shifts a multi-word row towards higher x-coordinates.
+	 * @param a Row to shift.
+	 * @param n Number of cells to shift by (less than a word).
+	 * @param out Array to write the result to.
+	 */
+	private static void shiftUp(long[] a, int n, long[] out) {
+		for (int i = a.length - 1; i >= 0; i--) {
+			out[i] = a[i] << n;
+			if (i > 0) out[i] |= a[i - 1] >>> (WORDBITS - n);
+		}
+	}
+
+	/** Returns the x-coordinate of the next set bit in a row, starting from a given column.
+	 * @param fromX Column to start searching from.
+	 * @param y y-coordinate of the row.
+	 * @param z z-coordinate of the row.
+	 * @return x-coordinate of the next set bit, or -1 if there is none.
+	 */
+	public int nextSetBit(int fromX, int y, int z) {
+		int r = row(y, z);
+		int i = fromX / WORDBITS;
+		if (i >= this.words) {
+			return -1;
+		}
+		long w = this.bits[r + i] & (-1L << fromX);
+		while (true) {
+			if (w != 0) {
+				return i * WORDBITS + Long.numberOfTrailingZeros(w);
+			}
+			if (++i == this.words) {
+				return -1;
+			}
+			w = this.bits[r + i];
+		}
+	}
+
+}
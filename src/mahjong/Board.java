@@ -1,10 +1,9 @@
 package mahjong;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /** This class represents a Mahjong board with tiles in it.
  */
@@ -30,9 +29,18 @@ public class Board {
 
     /** Directory path for layout file. */
     private String layoutFile;
-
-    /** List for storing all free tiles on the board. */
-    private ArrayList<Tile> freeTiles;
+    
+    /** Compiled geometry of the layout file, shared with other boards dealt from it. */
+    private Layout layout;
+    
+    /** Tile dealt to each slot of the layout. */
+    private Tile[] tiles;
+    
+    /** Which tiles are on the board, and which of those are free. */
+    private Position position;
+    
+    /** Listeners notified of changes to the tiles on the board. */
+    private ArrayList<BoardListener> listeners = new ArrayList<BoardListener>();
 
     /** Designates different tile assignment strategies. 
      * The TileAssignment.VOID strategy assigns distinct invalid group value and subindex
@@ -41,28 +49,34 @@ public class Board {
      * The TileAssignment.RANDOM strategy assigns valid value and subindex pairs to tiles
      * randomly such that each tile receives a distinct assignment.
      * The TileAssignment.SOLVABLE strategy assigns valid pairs to tiles randomly subject to
-     * the constraint that the final board state be solvable.*/
-    public enum TileAssignment { VOID, RANDOM, SOLVABLE };
+     * the constraint that the final board state be solvable (See DealGenerator).
+     * The TileAssignment.PARALLEL strategy is the same as TileAssignment.SOLVABLE, but makes
+     * several attempts at once on the common fork/join pool.
+     * The TileAssignment.VERIFIED strategy deals at random, like TileAssignment.RANDOM, until
+     * a deal is proven solvable, verifying several deals at once on the common fork/join pool
+     * (See DealGenerator.verified()).*/
+    public enum TileAssignment { VOID, RANDOM, SOLVABLE, PARALLEL, VERIFIED };
     
     /** Tile assignment strategy used. */
     private TileAssignment tAssignment;
     
+    /** Default time budget of dealing the board, in milliseconds. */
+    public static final long DEALMILLIS = 2000;
+    /** Time budget of dealing the board, in milliseconds, or 0 for none. */
+    private long dealMillis = DEALMILLIS;
+    /** Time budget and cancellation of the deal in progress or last made. */
+    private volatile DealBudget dealBudget;
+    /** Source of deals made ahead of time, or null to deal on demand. */
+    private DealPrefetcher prefetcher;
+    
     /** Construct a new board from a given template file.
      * @param layoutFile Template file name.
      * @param s Tile assignment strategy.
      * @throws IOException 
      */
     public Board(String layoutFile, TileAssignment s) throws IOException {
-    	int[] d = LayoutDimensions(layoutFile);
-    	
-    	this.width = d[0];
-    	this.height = d[1];
-    	this.depth = d[2];
-    	
     	this.layoutFile = layoutFile;
     	
-    	this.freeTiles = new ArrayList<Tile>();
-    	
     	this.tAssignment = s;
     	
     	this.build(null, layoutFile, s);
@@ -76,74 +90,29 @@ public class Board {
      * @throws IOException 
      */
     public Board(Random r1, String layoutFile, TileAssignment s) throws IOException {
-    	int[] d = LayoutDimensions(layoutFile);
-    	
-    	width = d[0];
-    	height = d[1];
-    	depth = d[2];
-    	
     	this.layoutFile = layoutFile;
     	
-    	this.freeTiles = new ArrayList<Tile>();
-    	
     	this.tAssignment = s;
 
-    	build(r, layoutFile, s);
+    	build(r1, layoutFile, s);
     }
 
-    /** Constructs a new board using a tile layout, assumed to be well-formed, specified by a
-     * three dimensional tile array argument and using a given (seeded) random variable.
-     * (Used specifically to create copies of existing boards.)
+    /** Construct a new board from a given template file, using a given (seeded) random
+     * variable and a given time budget for every deal, this one included.
      * @param r1 Random variable to use.
-     * @param c Tile array to use.
+     * @param layoutFile Template file name.
+     * @param s Tile assignment strategy.
+     * @param dealMillis Time budget of dealing the board, in milliseconds, or 0 for none (See
+     * setDealMillis()).
+     * @throws IOException 
      */
-    private Board(Random r, Tile[][][] c) {
-    	this.r = r;
-    	
-    	/* Dimensions of the board correspond to dimensions of the Tile array. (Tile array is
-    	 * assumed to be dimensionally structured according to the following convention.) */
-    	this.depth = c.length;
-    	this.height = c[0].length;
-    	this.width = c[0][0].length;
-    	
-    	this.content = new Tile[this.depth][this.height][this.width];
-    	
-    	/* Boolean array reflects the structure of the input Tile array to track which tiles
-    	 * have been copied to the contents of the current board. (Cell value of true
-    	 * indicates that the cell contents have already been copied.) */
-    	boolean[][][] tilesVisited = new boolean[depth][height][width];
-    	
-    	/* The information in the input Tile array is copied to the contents array of the 
-    	 * current board. */
-    	Tile t;
-    	for (int z = 0; z < this.depth; z++) {
-    		for (int y = 0; y < this.height; y++) {
-    			for (int x = 0; x < this.width; x++) {
-    				if (c[z][y][x] == null) {
-    					this.content[z][y][x] = null;
-    				} else {
-    					if (!tilesVisited[z][y][x]) {
-    						t = c[z][y][x];
-    						this.content[z][y][x] = new Tile(t.getValue(), t.getSubindex());
-    						t = this.content[z][y][x];
-    						this.addTile(t, x, y, z);
-							
-							/* Since a single tile occupies four positions (Arranged
-							 * contigously into a square) in the contents array, the
-							 * corresponding positions in the tilesVisited array are marked
-							 * true. */
-							tilesVisited[z][y][x] = true;
-							tilesVisited[z][y][x + 1] = true;
-							tilesVisited[z][y + 1][x] = true;
-							tilesVisited[z][y + 1][x + 1] = true;
-    					}
-    				}
-    			}
-    		}
-    	}
+    public Board(Random r1, String layoutFile, TileAssignment s, long dealMillis) throws IOException {
+    	this.layoutFile = layoutFile;
     	
-    	this.freeTiles = new ArrayList<Tile>();
-    	buildFreeTiles();
+    	this.tAssignment = s;
+    	this.dealMillis = dealMillis;
+
+    	build(r1, layoutFile, s);
     }
 
     /** Processes a layout file, assumed to be well-formed (See 
@@ -155,79 +124,12 @@ public class Board {
      * @throws IOException
      */
     protected static int[] LayoutDimensions(String layoutFile) throws IOException {
-    	BufferedReader reader1 = new BufferedReader(new FileReader(layoutFile));
-    	BufferedReader reader2 = new BufferedReader(new FileReader(layoutFile));
-    	
-    	/* Layout file to be processed line by line. */
-    	String L1 = reader1.readLine();
-    	String L2 = reader2.readLine();
-    	
-    	int x = 0;
-    	int y = 0;
-    	int z = 0;
-    	
-    	int[] dimensions = new int[3];
-    	
-    	/* Each line from the beginning of the file is skipped until a line starting with '%'
-    	 * is encountered, indicating that the information to immediately follow is the tile
-    	 * arrangement for the first layer or level 0. */
-    	while (L1.equals("") || (L1.charAt(0) != '%')) {
-    		L1 = reader1.readLine();
-    	}
-    	
-		L1 = reader1.readLine();
-		L1 = reader1.readLine();
-		/* The horizontal dimension of the board is calculated by iterating through the first
-		 * line of the tile arrangement information for the first layer and counting the
-		 * non-space characters (Each representing a unit on the board having width equal to
-		 * 1/2 that of a single tile). */
-		for (int i = 0; i < L1.length(); i++) {
-			if(L1.charAt(i) != ' ') {
-				x++;
-			}
-		}
-		
-		/* The vertical dimension of the board is calculated by counting the number of
-		 * non-empty lines for the first layer (Each non-empty line begins with a character
-		 * that represents a unit on the board having height equal to 1/2 that of a single
-		 * tile). (The halting condition is either an EOF or a '%' character, the latter
-		 * indicating the start of a new layer.) */
-		while (L1 != null && (L1.charAt(0) != ' ') && (L1.charAt(0) != '%')) {
-			/* Once a non-empty line is encountered, the next consecutive line is also
-			 * non-empty as a result of the structure of the grid representation of the tile
-			 * arrangement.*/
-			y = y + 2;
-			L1 = reader1.readLine();
-			if (L1 == null) {
-				break;
-			}
-			L1 = reader1.readLine();
-			L1 = reader1.readLine();	
-		}
-		
-		/* The third dimension of the board is calculated by counting the number of lines
-		 * beginning with the character '%'. */
-		while (L2 != null) {
-    		if (!L2.equals("")) {
-    			if (L2.charAt(0) == '%') {
-    				z++;
-    			}
-    			L2 = reader2.readLine();
-    		} else L2 = reader2.readLine();
-    	}
-		
-		dimensions[0] = x;
-		dimensions[1] = y;
-		dimensions[2] = z;
-		
-		reader1.close();
-		reader2.close();
-		
-    	return dimensions;
+    	return Layout.load(layoutFile).getDimensions();
     }
     
     /** Basic setup routine. Uses or creates a random number generator and then initializes
-     * the board and the GUI. 
+     * the board and the GUI. The layout file is only read if it has changed since it was
+     * last compiled (See Layout.load()).
      * @param r1 Random number generator to use.
      * @param layoutFile Template file name.
      * @throws IOException 
@@ -240,245 +142,145 @@ public class Board {
         } else {
             this.r = r1;
         }
+        
+        this.layout = Layout.load(layoutFile);
+        
+        this.width = this.layout.getWidth();
+        this.height = this.layout.getHeight();
+        this.depth = this.layout.getDepth();
     	
         this.content = new Tile[this.depth][this.height][this.width];
-    	    	
-    	int x;
-    	int y;
-    	int z = -1;
-    	
-    	BufferedReader reader = new BufferedReader(new FileReader(layoutFile));
-
-    	String L = reader.readLine();
-    	/* Used as a temporary group value and subindex value for all tiles on the current
-    	 * board. */
-    	int v = -1;
-    	/* The information from the layout file is extracted line by line. */
-    	while (L != null) {
-    		if (L.equals("")) {
-    			L = reader.readLine();
-    		} else {
-    			/* If true, then the next higher layer is to be filled. */
-    			if (L.charAt(0) == '%') {
-    				L = reader.readLine();
-    				L = reader.readLine();
-    				z++;
-    				/* Loops over rows of for the given layer, ensuring it is filled with
-    				 * tiles row by row. */
-    				for (y = 0; y < this.height; y++) {
-    					x = 0;
-    					int i = 0;
-    					/* Loops through the tiles for a given row. */
-    					while (x < this.width) {
-    						/* Space characters merely serve as delimiters for the template
-    						 * file and so are ignored. */
-   							if (L.charAt(i) == ' ') {
-   								i++;
-   							} else {
-   								/* '0' characters mark empty locations on the board and so
-   								 * are ignored. Also, if the location is already
-   								 * filled, then it is ignored. */
-   								if ((L.charAt(i) == '0') || (this.content[z][y][x] != null)) {
-   									x++;
-   									i++;
-   								} else {
-   									/* The given position in the board is filled by a new
-   									 * tile if the character encountered in the template file
-   									 * is not '0' and the corresponding cell in the 'content'
-   									 * array is empty. */
-   									if (this.content[z][y][x] == null) {
-   										Tile t = new Tile(v, v);
-   										this.addTile(t, x, y, z);
-   	    								/* Decrementing v after each tile assignment
-   	    								 * to the board ensures that each distinct tile
-   	    								 * receives distinct group value and subindex pair
-   	    								 * values. */
-   	    								v--;
-   	    								x = x + 2;
-   	    								/* Handles special case when the representation of a
-   	    								 * single tile in the layout file straddles a grid
-   	    								 * cell boundary. */
-   	    								if ((i < L.length() - 1) && (L.charAt(i + 1) == ' ')) {
-   	    									i = i + 3;
-   	    								} else {
-   	    									i = i + 2;
-   	    								}
-   	    							}
-   								}
-    						}
-    					}   					
-    					L = reader.readLine();
-    					if ((L != null) && L.equals("")) {
-    						L = reader.readLine();
-    					}
-    				}
-    			} else {
-    				L = reader.readLine();
-    			}
-    		}
+        this.tiles = new Tile[this.layout.getSlotCount()];
+    	
+    	/* Each slot of the layout is filled by a new tile, which is given the coordinates of
+    	 * the slot. */
+    	for (int i = 0; i < this.tiles.length; i++) {
+    		Tile t = new Tile(-1, -1);
+    		this.tiles[i] = t;
+    		this.addTile(t, this.layout.getX(i), this.layout.getY(i), this.layout.getZ(i));
     	}
-    
-    	reader.close();
     	
+    	this.dealBudget = new DealBudget(this.dealMillis);
     	tileAssigner(s);
     	
     	buildFreeTiles();
 //		printFreeTiles();
+    	this.fireBoardChanged();
     }
 
     /** Assigns each tile on the board with a valid group value and subindex pair according
      * to a pre-specified strategy.
      * @param s Choice of strategy
+     * @throws IOException If the layout has more tiles than there are groups for.
      */
-    private void tileAssigner(TileAssignment s) {
+    private void tileAssigner(TileAssignment s) throws IOException {
     	if (s == TileAssignment.VOID) {
-    		/* Boolean array reflects the structure of the current board's contents array and is
-        	 * used to track which tiles have been assigned a value and subindex pair. (Cell
-        	 * value of true indicates that the tile occupying the corresponding position has
-        	 * already been assigned.)*/
-    		boolean[][][] tilesVisited = new boolean[this.depth][this.height][this.width];
     		/* Each tile is assigned a group value and subindex of v, which represents an
     		 * invalid assignment, in the context of the game, since the value of v will
     		 * always be negative. */
     		int v = -1;
     		
-        	for (int z = 0; z < this.depth; z++) {
-        		for (int y = 0; y < this.height; y++) {
-        			for (int x = 0; x < this.width; x++) {
-        				if ((this.content[z][y][x] != null) && !tilesVisited[z][y][x]) {
-        						Tile t = this.content[z][y][x];
-        						
-        						t.setValue(v);
-        						t.setSubindex(v);
-        						
-    							tilesVisited[z][y][x] = true;
-    							tilesVisited[z][y][x + 1] = true;
-    							tilesVisited[z][y + 1][x] = true;
-    							tilesVisited[z][y + 1][x + 1] = true;
-    							
-    							/* Decremented after each tile assignment to ensure each
-    							 * tile receives a distinct value and subindex pair. */
-    							v--;
-        				}
-        			}
-        		}
-        	}
+    		for (Tile t: this.tiles) {
+    			t.setValue(v);
+    			t.setSubindex(v);
+    			
+    			/* Decremented after each tile assignment to ensure each tile receives a
+    			 * distinct value and subindex pair. */
+    			v--;
+    		}
+    		return;
     	}
-    	if (s == TileAssignment.RANDOM) {
-    		/* Array is indexed by all possible group value and subindex pairs, where the
-        	 * contents of a given cell is true if and only if the index of the cell 
-        	 * corresponds to the value and subindex of a tile already on the board. */
-        	boolean[][] tileVI = new boolean[MAXGROUPS][GROUPSIZE];
-        	boolean[][][] tilesVisited = new boolean[this.depth][this.height][this.width];
-        	int value;
-        	int subindex;
-        	
-    		for (int z = 0; z < this.depth; z++) {
-        		for (int y = 0; y < this.height; y++) {
-        			for (int x = 0; x < this.width; x++) {
-        				if ((this.content[z][y][x] != null) && !tilesVisited[z][y][x]) {
-        					Tile t = this.content[z][y][x];
-        					
-        					/* Tile is assigned value and subindex pair randomly subject
-							 * to the condition that no other existing tile on the board
-							 * as the same value pair. */
-        					do {
-								value = r.nextInt(MAXGROUPS);
-								subindex = r.nextInt(GROUPSIZE);
-							} while (tileVI[value][subindex]);
-							/* Marked true to prevent other tiles from being assigned the
-							 * same value and subindex. */
-							tileVI[value][subindex] = true;
-							
-							t.setValue(value);
-							t.setSubindex(subindex);
-							
-							tilesVisited[z][y][x] = true;
-							tilesVisited[z][y][x + 1] = true;
-							tilesVisited[z][y + 1][x] = true;
-							tilesVisited[z][y + 1][x + 1] = true;
-        				}
-        			}
-        		}
-        	}
+    	
+    	int[] values = null;
+    	if (this.prefetcher != null) {
+    		/* Unless the prefetcher is seeded, the wait is bounded by the board's budget. A
+    		 * deal not taken is then made on the spot, at random since the budget has run out
+    		 * or was cancelled, and reported as a fallback (See wasFallback()). */
+    		values = (this.prefetcher).take(this.layoutFile, s, this.dealBudget, this.dealMillis);
+    	}
+    	if (values == null) {
+    		values = deal(this.layout, this.layoutFile, s, r, this.dealBudget);
+    	}
+    	this.assignValues(values);
+    }
+    
+    /** Deals a layout according to a strategy, i.e. chooses the group value of the tile
+     * dealt to each slot. Falls back to a cheaper strategy when the strategy finds no deal,
+     * and to a random deal when the time budget runs out; a fallback to a random deal is
+     * recorded in the budget (See DealBudget.isFallback()). The method uses no state of a
+     * board, so deals can also be made ahead of time (See DealPrefetcher).
+     * @param layout Layout to deal.
+     * @param layoutFile Name of the layout file, for messages.
+     * @param s Choice of strategy, other than VOID.
+     * @param r Random number generator to use.
+     * @param budget Time budget and cancellation of the deal.
+     * @return The group value of the tile dealt to each slot.
+     * @throws IOException If the layout has more tiles than there are groups for.
+     */
+    protected static int[] deal(Layout layout, String layoutFile, TileAssignment s, Random r,
+    		DealBudget budget) throws IOException {
+    	int[] values = null;
+    	if ((s == TileAssignment.SOLVABLE) || (s == TileAssignment.PARALLEL)) {
+    		/* The deal is built from an order in which all the tiles can be removed (See
+    		 * DealGenerator). The parallel attempts are seeded from r, so the deal is still
+    		 * repeatable for a given seed and number of threads. */
+    		if (s == TileAssignment.SOLVABLE) {
+    			values = DealGenerator.solvable(layout, MAXGROUPS, r, budget);
+    		} else {
+    			values = DealGenerator.parallelSolvable(layout, MAXGROUPS, r.nextLong(),
+    					ForkJoinPool.commonPool(), budget);
+    		}
+    		if ((values == null) && !budget.isExhausted()) {
+    			System.err.println("No solvable deal found for " + layoutFile + "; dealing at random.");
+    		}
+    	}
+    	if (s == TileAssignment.VERIFIED) {
+    		/* Random deals are verified by a bounded search until one is winnable (See
+    		 * DealGenerator.verified()). */
+    		values = DealGenerator.verified(layout, MAXGROUPS, r.nextLong(),
+    				ForkJoinPool.commonPool(), budget);
+    		if ((values == null) && !budget.isExhausted()) {
+    			System.err.println("No verified deal found for " + layoutFile + "; dealing a solvable one.");
+    			return deal(layout, layoutFile, TileAssignment.SOLVABLE, r, budget);
+    		}
+    	}
+    	if ((values == null) && (s != TileAssignment.RANDOM)) {
+    		/* The deal may not be solvable; the caller can tell (See wasFallback()). */
+    		budget.setFallback();
+    		if (budget.isExhausted()) {
+    			System.err.println("Dealing " + layoutFile + " gave up after " + budget.getAttempts()
+    					+ " attempts; dealing at random.");
+    		}
     	}
-    	if (s == TileAssignment.SOLVABLE) {
-        	boolean[][] tileVI;
-        	/* Indicates whether the tile assignment procedure reaches an unsolvable board
-        	 * state. */
-    		boolean unsolvable;
-        	int value;
-        	int subindex;
-    		Tile t;
-    		Tile t1;
-    		Tile t2;
-    		
-    		do {
-    			unsolvable = false;
-    			/* Current board is given a void tile assignment. */
-    			tileAssigner(TileAssignment.VOID);
-    			tileVI = new boolean[MAXGROUPS][GROUPSIZE];
-    			/* Copy of the current board with void tile assignment is instantiated. */
-    			Board boardCopy = new Board(r, this.content);
-        		ArrayList<Tile> freeTilesCopy = boardCopy.getFreeTiles();
-        		/* Each iteration of the loop assigns a pair of distinct free tiles on the
-        		 * current board with the same value but different subindices and then
-        		 * removes the corresponding tiles from boardCopy. The loop halts once
-        		 * boardCopy is empty, indicating that all the tiles on the current board
-        		 * have been assigned. */
-        		while (!boardCopy.isEmpty()) {
-        			/* If at any point the number of free tiles on boardCopy is one, then
-        			 * the tile assignment so far reaches an unsolvable board state, i.e. a
-        			 * dead end. */
-        			if (freeTilesCopy.size() == 1) {
-        				unsolvable = true;
-        				break;
-        			}
-        			/* Pair of distinct free tiles is selected from boardCopy, which
-        			 * correspond to distinct free tiles on the current board. */
-        			do {
-        				t1 = freeTilesCopy.get(r.nextInt(freeTilesCopy.size()));
-        				t2 = freeTilesCopy.get(r.nextInt(freeTilesCopy.size()));
-        			} while (t1 == t2);
-        			do {
-        				value = r.nextInt(MAXGROUPS);
-        				subindex = r.nextInt(GROUPSIZE);
-        			} while (tileVI[value][subindex]);
-        			tileVI[value][subindex] = true;
-        			
-        			/* The corresponding tile in the current board to the first tile in the
-        			 * chosen pair from boardCopy, is assigned the selected value and
-        			 * subindex. */
-        			t = content[t1.getZ()][t1.getY()][t1.getX()];
-        			t.setValue(value);
-        			t.setSubindex(subindex);
-        			
-        			/* Randomly selects a subindex value for the given group value that has
-        			 * not been assigned to an existing tile. */
-        			do {
-        				subindex = r.nextInt(GROUPSIZE);
-        			} while (tileVI[value][subindex]);
-        			tileVI[value][subindex] = true;
-        			
-        			/* The correspond tile in the current board to the second tile in the
-        			 * chosen pair from boardCopy is assigned the same value and the new
-        			 * selected subindex. */
-        			t = this.content[t2.getZ()][t2.getY()][t2.getX()];
-        			t.setValue(value);
-        			t.setSubindex(subindex);
-        			
-        			/* Pair of tiles are removed from boardCopy to indicate that the
-        			 * corresponding tiles in the current board have already been properly
-        			 * assigned. */
-        			boardCopy.remove(t1);
-        			boardCopy.remove(t2);
-        		}
-        	/* If at any point the board is not empty and becomes unsolvable, then the
-        	 * tile assignment procedure is restarted and repeated until a solvable final
-        	 * board state is achieved. */
-    		} while (unsolvable);
-    	} 
     	
+    	if (values == null) {
+    		/* Each tile is dealt a group value at random, among the tiles of all the groups,
+    		 * so no two tiles share a value and subindex pair. */
+    		values = DealGenerator.random(layout, MAXGROUPS, r);
+    		if (values == null) {
+    			throw new IOException(layoutFile + " has more tiles than there are groups for.");
+    		}
+    	}
+    	return values;
+    }
+    
+    /** Assigns each tile on the board a given group value, together with a subindex chosen
+     * randomly among those not yet taken in the group.
+     * @param values Group value of the tile for each slot.
+     */
+    private void assignValues(int[] values) {
+    	boolean[][] tileVI = new boolean[MAXGROUPS][GROUPSIZE];
+    	int subindex;
+    	
+    	for (int i = 0; i < this.tiles.length; i++) {
+    		do {
+    			subindex = r.nextInt(GROUPSIZE);
+    		} while (tileVI[values[i]][subindex]);
+    		tileVI[values[i]][subindex] = true;
+    		
+    		this.tiles[i].setValue(values[i]);
+    		this.tiles[i].setSubindex(subindex);
+    	}
     }
     
     /** Adds a given tile to the board at the specified position. (The input tile is assumed
@@ -491,40 +293,43 @@ public class Board {
      */
     private void addTile(Tile t, int x, int y, int z) {
     	t.setCoord(z, y, x);
+    	this.placeTile(t);
+    }
+    
+    /** Places a tile in the contents array at the position recorded in the tile.
+     * @param t Tile to place.
+     */
+    private void placeTile(Tile t) {
+    	int x = t.getX();
+    	int y = t.getY();
+    	int z = t.getZ();
+    	
 		this.content[z][y][x] = t;
 		this.content[z][y][x + 1] = t;
 		this.content[z][y + 1][x] = t;
 		this.content[z][y + 1][x + 1] = t;
     }
         
-    /** Constructs the free tile list given the current board state.
+    /** Constructs the free tile state from scratch given the current board state, i.e. the
+     * tiles found in the contents array.
      */
     protected void buildFreeTiles() {
-    	Tile t;
+    	int[] values = new int[this.tiles.length];
+    	boolean[] present = new boolean[this.tiles.length];
     	
-    	for (int k = 0; k < this.depth; k++) {
-    		for (int j = 0; j < this.height; j++) {
-    			for (int i = 0; i < this.width; i++) {
-    				t = this.content[k][j][i];
-    				if ((t != null) && this.free(t) && !this.freeTiles.contains(t)) {
-    					this.freeTiles.add(this.content[k][j][i]);
-    				}
-    			}
-    		}
+    	for (int i = 0; i < this.tiles.length; i++) {
+    		Tile t = this.tiles[i];
+    		values[i] = t.getValue();
+    		present[i] = (this.content[t.getZ()][t.getY()][t.getX()] == t);
     	}
+    	
+    	this.position = new Position(this.layout, values, present);
     }
         
     /** Wipes the current board and constructs a new one using the current Random variable.
      * @throws IOException
      */
     public void reset() throws IOException {
-    	int[] d = LayoutDimensions(layoutFile);
-    	
-    	this.width = d[0];
-    	this.height = d[1];
-    	this.depth = d[2];
-    	
-    	this.freeTiles.clear();
     	this.build(this.r, layoutFile, this.tAssignment);
     }
 
@@ -532,16 +337,38 @@ public class Board {
      * @return true if the board has no more tiles, false otherwise.
      */
     public boolean isEmpty() {
-    	for (int k = 0; k < depth; k++) {
-    		for (int j = 0; j < height; j++) {
-    			for (int i = 0; i < width; i++) {
-    				if (content[k][j][i] != null) {
-    					return false;
-    				}
-    			}
-    		}
-    	}
-    	return true;
+    	return this.position.isEmpty();
+    }
+    
+    /** Checks if the game is proven lost, i.e. the tiles left cannot all be removed whatever
+     * the moves (See DeadlockDetector.isLost()).
+     * @return true if the game is lost.
+     */
+    public boolean isLost() {
+    	return DeadlockDetector.isLost(this.position);
+    }
+    
+    /** Getter.
+     * @return Number of tiles on the board.
+     */
+    public int getTileCount() {
+    	return this.position.getTileCount();
+    }
+    
+    /** Getter.
+     * @return Zobrist hash of the tiles on the board, kept up to date as tiles are removed
+     * and put back (See Position.getHash()).
+     */
+    public long getHash() {
+    	return this.position.getHash();
+    }
+    
+    /** Getter.
+     * @return Number of distinct pairs of free matching tiles, i.e. the number of moves
+     * available in the current board state.
+     */
+    public int getMatchablePairCount() {
+    	return this.position.getMatchablePairCount();
     }
 
     /** Attempt to remove the given tile; the tile must be present.
@@ -554,73 +381,64 @@ public class Board {
     	int z = t.getZ();
     	
     	if (content[z][y][x] != null) {
-    		if (free(t)) {
+    		int s = layout.slotOf(t);
+    		if ((s >= 0) && position.remove(s)) {
     			content[z][y][x] = null;
     			content[z][y][x + 1] = null;
     			content[z][y + 1][x] = null;
     			content[z][y + 1][x + 1] = null;
-    			/* Removed tile is also deleted from the 'freeTiles' list, which is then
-    			 * reconstructed from the new board state. */
-    			freeTiles.remove(t);
-    			buildFreeTiles();
+    			this.fireBoardChanged();
     			return true;
     		}
     	}
     	
         return false;
     }
+    
+    /** Puts a previously removed tile back on the board, at the position it was removed
+     * from. The free tiles are updated for the tile and the tiles it may block again.
+     * @param t The tile to put back.
+     */
+    protected void putBack(Tile t) {
+    	this.placeTile(t);
+    	this.position.restore(this.layout.slotOf(t));
+    	this.fireBoardChanged();
+    }
+    
+    /** Registers a listener to be notified whenever tiles are removed from or put back on
+     * the board, or the board is dealt again.
+     * @param l The listener.
+     */
+    public void addBoardListener(BoardListener l) {
+    	(this.listeners).add(l);
+    }
+    
+    /** Unregisters a listener.
+     * @param l The listener.
+     */
+    public void removeBoardListener(BoardListener l) {
+    	(this.listeners).remove(l);
+    }
+    
+    /** Notifies the listeners that the tiles on the board have changed. */
+    private void fireBoardChanged() {
+    	for (BoardListener l : this.listeners) {
+    		l.boardChanged(this);
+    	}
+    }
 
     /** Checks if the given tile is free.
      * @param t The Tile to check.
      * @return true if the Tile is visible and can be removed, false otherwise.
      * */
     public boolean free(Tile t) {
-    	int x = t.getX();
-    	int y = t.getY();
-    	int z = t.getZ();
-    	
-    	/* If the given tile, in addition to being visible, 
-    	 * is the leftmost or rightmost tile on the board in the row that it coincides, then
-    	 * it is free. */
-    	if (isVisible(t)) {
-    		if (x == 0 || ((content[z][y][x - 1] == null)
-    			&& (content[z][y + 1][x - 1] == null))) {
-    			return true;
-    		}
-    		if (x + 1 == width - 1 || ((content[z][y][x + 2] == null)
-    			&& (content[z][y + 1][x + 2] == null))) {
-    			return true;
-    		}
-    	}
-    	
-    	return false;
+    	/* If the given tile, in addition to having no tile above it, has no neighbour on its
+    	 * left or no neighbour on its right (Which includes being the leftmost or rightmost
+    	 * tile on the board in the row that it coincides), then it is free. */
+    	int s = layout.slotOf(t);
+    	return (s >= 0) && position.isFree(s);
     }
 
-    /** Checks if the given tile is visible, which is true if there are no tiles directly
-     * above it.
-     * @param t The tile to check.
-     * @return true if the given tile is visible and false if the tile is completely or
-     * partially covered by another tile.
-     */
-    private boolean isVisible(Tile t) {
-    	int x = t.getX();
-    	int y = t.getY();
-    	int z = t.getZ();
-    	
-    	/* If the tile resides on the topmost layer, then the tile is trivially visible. */
-    	if (z == this.depth - 1) {
-    		return true;
-    	} else {
-    		if ((this.content[z + 1][y][x] == null) && 
-    	    	(this.content[z + 1][y][x + 1] == null) &&
-    	    	(this.content[z + 1][y + 1][x] == null) &&
-    	    	(this.content[z + 1][y + 1][x + 1] == null)) {
-    			return true;
-    		}
-    	}
-    	return false;
-    }
-    
     /** Getter.
      * @return Tile content.
      */
@@ -661,15 +479,97 @@ public class Board {
     	return this.tAssignment;
     }
     
+    /** Sets the source of deals made ahead of time, used from the next deal on.
+     * @param p Source of deals, or null to deal on demand.
+     */
+    public void setPrefetcher (DealPrefetcher p) {
+    	this.prefetcher = p;
+    }
+    
+    /** Sets the time budget of dealing the board, from the next deal on. When it runs out,
+     * the board is dealt at random instead.
+     * @param millis Time budget in milliseconds, or 0 for none.
+     */
+    public void setDealMillis (long millis) {
+    	this.dealMillis = millis;
+    }
+    
+    /** Getter.
+     * @return Time budget of dealing the board, in milliseconds, or 0 for none.
+     */
+    public long getDealMillis () {
+    	return this.dealMillis;
+    }
+    
+    /** Cancels the deal in progress, if any, e.g. from another thread; the board is then
+     * dealt at random. */
+    public void cancelDeal () {
+    	DealBudget d = this.dealBudget;
+    	if (d != null) d.cancel();
+    }
+    
+    /** Getter.
+     * @return Number of attempts made at finding the last deal (See DealBudget).
+     */
+    public int getDealAttempts () {
+    	return (this.dealBudget == null) ? 0 : (this.dealBudget).getAttempts();
+    }
+    
+    /** Checks whether the last deal fell back to a random one, which may not be solvable,
+     * because its time budget ran out or the strategy found no deal (See setDealMillis()).
+     * @return true if the last deal is not guaranteed solvable as its strategy promises.
+     */
+    public boolean wasFallback () {
+    	return (this.dealBudget != null) && (this.dealBudget).isFallback();
+    }
+    
     protected void setLayoutFile (String l) {
     	this.layoutFile = l;
     }
         
     /** Getter.
-     * @return Free tiles list.
+     * @return Compiled geometry of the board's layout.
+     */
+    public Layout getLayout () {
+    	return this.layout;
+    }
+
+    /** Getter.
+     * @return Copy of the current board state, which can be played on without affecting
+     * the board.
+     */
+    protected Position getPosition () {
+    	return new Position(this.position);
+    }
+
+    /** Getter.
+     * @return The current board state itself, kept up to date as tiles are removed and put
+     * back, which saves copying it when it is only read, e.g. on every repaint. It must not
+     * be played on, nor read after the board changes from another thread.
+     */
+    protected Position getLivePosition () {
+    	return this.position;
+    }
+
+    /** Getter.
+     * @param s Slot of the board's layout.
+     * @return Tile dealt to the slot.
+     */
+    protected Tile getTile (int s) {
+    	return this.tiles[s];
+    }
+        
+    /** Getter.
+     * @return Free tiles list (A new list, built from the current board state).
      */
     public ArrayList<Tile> getFreeTiles () {
-    	return this.freeTiles;
+    	ArrayList<Tile> freeTiles = new ArrayList<Tile>();
+    	
+    	for (int i = 0; i < this.position.getFreeCount(); i++) {
+    		freeTiles.add(this.tiles[this.position.getFree(i)]);
+    	}
+    	
+    	return freeTiles;
     }
     
     /** Checks whether the input pair of tiles can be removed from the board, i.e. checks
@@ -702,37 +602,59 @@ public class Board {
 //    	}
 //    	return false;
     	
-    	return !((this.getRemovableTiles()).isEmpty());
+    	return this.position.getMatchablePairCount() > 0;
+    }
+    
+    /** Checks whether a tile is free and has a free matching tile, i.e. can be removed
+     * as part of some pair.
+     * @param t The tile to check.
+     * @return true if the tile can be removed in the current board state.
+     */
+    public boolean isRemovable(Tile t) {
+    	int s = this.layout.slotOf(t);
+    	return (s >= 0) && (this.tiles[s] == t) && this.position.isRemovable(s);
     }
     
+    /** Collects the free tiles that have a free matching tile.
+     * @return List of removable tiles.
+     */
     public ArrayList<Tile> getRemovableTiles() {
     	ArrayList<Tile> removableTiles = new ArrayList<Tile>();
     	
-    	for (Tile t1: this.freeTiles) {
-    		for (Tile t2: this.freeTiles) {
-    			if (this.isRemovablePair(t1, t2)) {
-    				if (!removableTiles.contains(t1)) removableTiles.add(t1);
-    				if (!removableTiles.contains(t2)) removableTiles.add(t2);
-    			}
-        	}
+    	for (int i = 0; i < this.position.getFreeCount(); i++) {
+    		int s = this.position.getFree(i);
+    		if (this.position.isRemovable(s)) removableTiles.add(this.tiles[s]);
     	}
       	
     	return removableTiles;
     }
     
+    /** Collects the removable tiles that match, but are distinct from, a given tile.
+     * @param t Tile to match.
+     * @return List of removable matching tiles.
+     */
     public ArrayList<Tile> getRemovableMatchingTiles(Tile t) {
-    	ArrayList<Tile> removableTiles = this.getRemovableTiles();
     	ArrayList<Tile> removableMatchingTiles = new ArrayList<Tile>();
+    	int v = t.getValue();
     	
-    	for (Tile u: removableTiles) {
-    		if (t.matches(u) && !t.equals(u)) removableMatchingTiles.add(u);
+    	if (this.position.getGroupFreeCount(v) >= 2) {
+    		for (int i = 0; i < this.position.getGroupFreeCount(v); i++) {
+    			Tile u = this.tiles[this.position.getGroupFree(v, i)];
+    			if (!t.equals(u)) removableMatchingTiles.add(u);
+    		}
     	}
     	
     	return removableMatchingTiles;
     }
     
+    /** Checks whether a tile's three matching tiles are all removable.
+     * @param t Tile to check.
+     * @return true if there are three removable tiles matching the given tile.
+     */
     public boolean isPartOfQuadrupleMatching(Tile t) {
-    	return ((this.getRemovableMatchingTiles(t)).size() == 3);
+    	int others = this.position.getGroupFreeCount(t.getValue());
+    	if (this.isRemovable(t)) others--;
+    	return others == GROUPSIZE - 1;
     }
     
     /** Prints the information stored in the contents array. If a given position is null,
@@ -760,6 +682,7 @@ public class Board {
      * with each tile in the list.
      */
     protected void printFreeTiles() {
+    	ArrayList<Tile> freeTiles = this.getFreeTiles();
     	if (!freeTiles.isEmpty()) {
     		int i = 1;
     		for (Tile t: freeTiles) {
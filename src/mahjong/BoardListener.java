@@ -0,0 +1,14 @@
+package mahjong;
+
+/** Listener notified whenever tiles are removed from or put back on a board, or the board is
+ * dealt again (See Board.addBoardListener()). Notifications are made on the thread that
+ * changed the board, which for the game is the event dispatch thread.
+ */
+public interface BoardListener {
+
+	/** Called after the tiles on a board have changed.
+	 * @param b The board.
+	 */
+	public void boardChanged(Board b);
+
+}
@@ -3,7 +3,6 @@ package mahjong;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
 import java.io.IOException;
 
 import javax.swing.JButton;
@@ -87,10 +86,10 @@ public class ButtonManager extends JPanel implements ActionListener {
 						d.repaint();
 						
 						String s = l.showLayoutSelectorDialog();
-						(d.getBoard()).setLayoutFile(LayoutSelector.LAYOUTDIR + File.separator + s.toLowerCase() + LayoutSelector.LAYOUT_EXT);
-						(this.jv).setTitle("Mahjongg: " + s);
+						(d.getBoard()).setLayoutFile(l.getLayoutFile(s));
 						(d.getHighScoreManager()).setLayout(s);
 						d.reset();
+						(this.jv).setLayoutTitle(s);
 						l.layoutSelected();
 						
 						d.repaint();
@@ -0,0 +1,84 @@
+package mahjong;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Transposition table shared by the threads of a parallel search (See ParallelSolver).
+ * Hashes are kept in a fixed size open-addressed array and claimed with compare-and-set, so
+ * no thread ever waits on a lock. When no free entry is found within a few probes the hash
+ * is dropped, which only costs the search some repeated work.
+ * The verification key of an entry is written just after its hash is claimed, so a lookup
+ * racing with the add may miss the entry, but never matches a wrong one.
+ */
+public class ConcurrentPositionTable implements TranspositionTable {
+	/** Maximum number of entries probed for a hash. */
+	private static final int MAXPROBES = 16;
+
+	/** Hashes in the table, where 0 marks an empty entry. */
+	private final AtomicLongArray entries;
+	/** Verification key of each entry, or 0 until it is written. */
+	private final AtomicLongArray checks;
+	/** Whether the hash 0, which cannot be stored in the entries, is in the table. */
+	private volatile boolean zero;
+	/** Verification key of the hash 0. */
+	private volatile long zeroCheck;
+
+	/** Constructor.
+	 * @param size Number of entries, rounded up to a power of two.
+	 */
+	public ConcurrentPositionTable(int size) {
+		int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+		this.entries = new AtomicLongArray(capacity);
+		this.checks = new AtomicLongArray(capacity);
+	}
+
+	public boolean contains(long h, long check) {
+		if (h == 0) return this.zero && (this.zeroCheck == check);
+		int mask = this.entries.length() - 1;
+		int i = this.index(h);
+		for (int k = 0; k < MAXPROBES; k++) {
+			long e = this.entries.get(i);
+			if ((e == h) && (this.checks.get(i) == check)) return true;
+			if (e == 0) return false;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/** Adds a hash to the table, unless the entries it may go in are all taken. A hash already
+	 * in the table with another verification key is not added again.
+	 * @param h Hash to add.
+	 * @param check Verification key of the hash.
+	 * @param depth Not used.
+	 */
+	public void add(long h, long check, int depth) {
+		if (h == 0) {
+			this.zeroCheck = check;
+			this.zero = true;
+			return;
+		}
+		int mask = this.entries.length() - 1;
+		int i = this.index(h);
+		for (int k = 0; k < MAXPROBES; k++) {
+			long e = this.entries.get(i);
+			if (e == 0) {
+				if (this.entries.compareAndSet(i, 0, h)) {
+					this.checks.set(i, check);
+					return;
+				}
+				/* Another thread took the entry first, possibly for the same hash. */
+				e = this.entries.get(i);
+			}
+			if (e == h) return;
+			i = (i + 1) & mask;
+		}
+	}
+
+	/** Computes the entry where the search for a hash starts.
+	 * @param h Hash.
+	 * @return Index into the entries.
+	 */
+	private int index(long h) {
+		return (int) (h ^ (h >>> 32)) & (this.entries.length() - 1);
+	}
+
+}
@@ -0,0 +1,125 @@
+package mahjong;
+
+/** Proves positions lost before they run out of pairs to remove, with rules cheap enough
+ * to check after every move. The rules only use the way tiles cover each other: a tile can
+ * only be removed after every tile covering it, directly or through other tiles (See
+ * Layout.covers()). Contains only static methods.
+ * A group is stuck when its tiles left cannot be paired so that the pairs can be removed
+ * one after the other, e.g. when one of its last two tiles covers the other.
+ * Groups with two tiles left must be removed as one pair, so when the pair of one such group
+ * covers a tile of another, it must be removed first; a cycle of such groups, each covering
+ * the next, can never be removed.
+ */
+public class DeadlockDetector {
+
+	/** Checks whether a position is lost by the rules above. A position with an odd number of
+	 * tiles, half way through a move, is not checked.
+	 * @param p Position.
+	 * @return true if the position is proven lost; false if it may still be won.
+	 */
+	public static boolean isLost(Position p) {
+		if ((p.getTileCount() % 2 != 0) || p.isEmpty()) {
+			return false;
+		}
+		Layout layout = p.getLayout();
+		int groups = p.getGroupCount();
+		int[][] left = new int[groups][Board.GROUPSIZE];
+		int[] count = new int[groups];
+		for (int s = 0; s < layout.getSlotCount(); s++) {
+			int v = p.getValue(s);
+			if (p.isPresent(s) && (v >= 0) && (count[v] < Board.GROUPSIZE)) {
+				left[v][count[v]++] = s;
+			}
+		}
+
+		for (int v = 0; v < groups; v++) {
+			if (isStuck(layout, left[v], count[v])) {
+				return true;
+			}
+		}
+		return hasCycle(layout, left, count);
+	}
+
+	/** Checks whether the tiles left in a group can no longer all be removed, because of
+	 * the way they cover each other. A tile cannot be paired with a tile covering it, and two
+	 * pairs cannot each cover the other.
+	 * @param layout Layout of the tiles.
+	 * @param left Slots of the tiles left in the group; only the first k are used.
+	 * @param k Number of tiles left in the group.
+	 * @return true if the tiles left in the group cannot be removed in pairs.
+	 */
+	protected static boolean isStuck(Layout layout, int[] left, int k) {
+		if (k == 2) {
+			return layout.covers(left[0], left[1]) || layout.covers(left[1], left[0]);
+		}
+		if (k == 4) {
+			/* Each of the three ways of pairing the tiles is tried. */
+			for (int j = 1; j < 4; j++) {
+				int a = left[0];
+				int b = left[j];
+				int c = left[j == 1 ? 2 : 1];
+				int d = left[j == 3 ? 2 : 3];
+				if (layout.covers(a, b) || layout.covers(b, a) || layout.covers(c, d) || layout.covers(d, c)) {
+					continue;
+				}
+				boolean first = layout.covers(a, c) || layout.covers(a, d) || layout.covers(b, c) || layout.covers(b, d);
+				boolean second = layout.covers(c, a) || layout.covers(c, b) || layout.covers(d, a) || layout.covers(d, b);
+				if (!(first && second)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/** Checks whether the groups with two tiles left must each be removed before another in a
+	 * cycle. The pairs are ordered by peeling off, again and again, a pair that no remaining
+	 * pair has to be removed before; if none can be peeled off, there is a cycle.
+	 * @param layout Layout of the tiles.
+	 * @param left Slots of the tiles left in each group.
+	 * @param count Number of tiles left in each group.
+	 * @return true if there is a cycle.
+	 */
+	private static boolean hasCycle(Layout layout, int[][] left, int[] count) {
+		int[] pairs = new int[Long.SIZE];
+		int n = 0;
+		for (int v = 0; v < count.length; v++) {
+			if (count[v] == 2) {
+				/* Beyond 64 forced pairs the rule is not checked; the sets are single words. */
+				if (n == pairs.length) return false;
+				pairs[n++] = v;
+			}
+		}
+
+		/* before[i] holds the pairs that must be removed before pair i. */
+		long[] before = new long[n];
+		for (int i = 0; i < n; i++) {
+			int[] a = left[pairs[i]];
+			for (int j = 0; j < n; j++) {
+				int[] b = left[pairs[j]];
+				if ((i != j) && (layout.covers(b[0], a[0]) || layout.covers(b[0], a[1])
+						|| layout.covers(b[1], a[0]) || layout.covers(b[1], a[1]))) {
+					before[i] |= 1L << j;
+				}
+			}
+		}
+
+		long remaining = (n == Long.SIZE) ? -1L : (1L << n) - 1;
+		while (remaining != 0) {
+			int peeled = -1;
+			for (int i = 0; i < n; i++) {
+				if (((remaining & (1L << i)) != 0) && ((before[i] & remaining) == 0)) {
+					peeled = i;
+					break;
+				}
+			}
+			if (peeled < 0) {
+				return true;
+			}
+			remaining &= ~(1L << peeled);
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,89 @@
+package mahjong;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Time budget and cancellation token of the generation of a deal (See DealGenerator). The
+ * generation checks the budget as it goes and gives up as soon as the deadline passes or the
+ * budget is cancelled, from any thread, so that dealing a board has a hard upper bound on its
+ * duration. The budget also counts the attempts made at finding a deal, and records whether
+ * the deal fell back to a random one, which may not be solvable (See Board.deal()).
+ */
+public class DealBudget {
+	/** Value of System.nanoTime() after which generation is given up, or 0 for none. */
+	private final long deadline;
+	/** Set when the generation is cancelled. */
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+	/** Number of attempts made at finding a deal. */
+	private final AtomicInteger attempts = new AtomicInteger();
+	/** Set when the deal fell back to a random one. */
+	private volatile boolean fallback;
+
+	/** Constructor.
+	 * @param millis Time budget in milliseconds, starting now, or 0 for no time limit.
+	 */
+	public DealBudget(long millis) {
+		this.deadline = (millis > 0) ? System.nanoTime() + millis * 1000000L : 0;
+	}
+
+	/** Cancels the generation. */
+	public void cancel() {
+		(this.cancelled).set(true);
+	}
+
+	/** Checks whether the generation should be given up.
+	 * @return true if the budget was cancelled or its deadline passed.
+	 */
+	public boolean isExhausted() {
+		return (this.cancelled).get() || ((this.deadline != 0) && (System.nanoTime() - this.deadline > 0));
+	}
+
+	/** Counts an attempt at finding a deal. */
+	protected void countAttempt() {
+		(this.attempts).incrementAndGet();
+	}
+
+	/** Getter.
+	 * @return Number of attempts made at finding a deal.
+	 */
+	public int getAttempts() {
+		return (this.attempts).get();
+	}
+
+	/** Records that the deal fell back to a random one. */
+	protected void setFallback() {
+		this.fallback = true;
+	}
+
+	/** Getter.
+	 * @return true if the deal fell back to a random one, which may not be solvable, because
+	 * the budget ran out or the strategy found no deal.
+	 */
+	public boolean isFallback() {
+		return this.fallback;
+	}
+
+	/** Adds the attempts made with another budget, and whether its deal fell back, e.g. when
+	 * the deal was made ahead of time (See DealPrefetcher).
+	 * @param other Budget of the deal.
+	 */
+	protected void add(DealBudget other) {
+		(this.attempts).addAndGet(other.getAttempts());
+		if (other.isFallback()) this.fallback = true;
+	}
+
+	/** Getter.
+	 * @return Value of System.nanoTime() after which generation is given up, or 0 for none.
+	 */
+	protected long getDeadline() {
+		return this.deadline;
+	}
+
+	/** Getter.
+	 * @return Flag set when the generation is cancelled, e.g. to hand over to a solver.
+	 */
+	protected AtomicBoolean getCancelled() {
+		return this.cancelled;
+	}
+
+}
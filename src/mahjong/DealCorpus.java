@@ -0,0 +1,310 @@
+package mahjong;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mahjong.Board.TileAssignment;
+
+/** Entry point generating large corpora of solvable deals, one file per layout, using every
+ * core. Workers on a thread pool generate the deals and hand them over a bounded queue to
+ * the main thread, which streams them to disk, so memory use does not depend on the size of
+ * the corpus. Contains only static methods.
+ * A corpus file starts with a header of four ints: a magic number, the format version, the
+ * number of slots n of the layout and the number of deals. Each deal follows as a record of
+ * the seed it was generated from (a long), the hash of its position (a long, See
+ * Position.getHash()) and the group value of the tile dealt to each slot, one byte per slot,
+ * in slot order. The deal of a record can be generated again from its seed (See deal()).
+ * Records are written in the order the workers finish them, which may vary between runs.
+ */
+public class DealCorpus {
+	/** Extension of corpus files. */
+	public static final String CORPUS_EXT = ".deals";
+	/** Magic number at the start of a corpus file ("MJDC"). */
+	private static final int MAGIC = 0x4D4A4443;
+	/** Version of the corpus format. */
+	private static final int VERSION = 1;
+	/** Size in bytes of the header of a corpus file. */
+	private static final int HEADERSIZE = 4 * 4;
+	/** Size in bytes of the output buffer. */
+	private static final int BUFFERSIZE = 1 << 16;
+	/** Number of deals the workers may get ahead of the output. */
+	private static final int QUEUESIZE = 1024;
+	/** Default number of deals per layout. */
+	private static final int DEALS_DEFAULT = 1000;
+
+	/** Number of deals per layout. */
+	private static int deals = DEALS_DEFAULT;
+	/** Tile assignment strategy of the deals (SOLVABLE or VERIFIED). */
+	private static Board.TileAssignment strategy = TileAssignment.SOLVABLE;
+	/** Number of worker threads. */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	/** Random seed, for repeatability, or 0. */
+	private static long seed;
+	/** Name of the single layout file to deal, or null for all of them. */
+	private static String layoutFile;
+	/** Directory the corpus files are written to. */
+	private static String outDir = ".";
+
+	/** A deal handed over from a worker to the output. */
+	private static class Deal {
+		/** Seed the deal was generated from. */
+		final long seed;
+		/** Group value of the tile dealt to each slot, or null to mark the end of a worker. */
+		final int[] values;
+
+		Deal(long seed, int[] values) {
+			this.seed = seed;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		parse(args);
+
+		String[] layoutFiles;
+		if (layoutFile != null) {
+			layoutFiles = new String[] { layoutFile };
+		} else {
+			File[] files = new File(LayoutSelector.LAYOUTDIR).listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String filename) {
+					return filename.endsWith(LayoutSelector.LAYOUT_EXT);
+				}
+			});
+			if ((files == null) || (files.length == 0)) {
+				System.err.println("Directory " + LayoutSelector.LAYOUTDIR + " does not contain any layout files.");
+				System.exit(1);
+			}
+			layoutFiles = new String[files.length];
+			for (int i = 0; i < files.length; i++) {
+				layoutFiles[i] = LayoutSelector.LAYOUTDIR + File.separator + files[i].getName();
+			}
+			Arrays.sort(layoutFiles);
+		}
+
+		System.out.println("strategy=" + strategy + " deals=" + deals + " threads=" + threads);
+		SplittableRandom root = (seed == 0L) ? new SplittableRandom() : new SplittableRandom(seed);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (String l : layoutFiles) {
+				generate(pool, l, root.split());
+			}
+			if (strategy == TileAssignment.VERIFIED) {
+				System.out.println("verified deals: " + DealGenerator.getVerifyStats());
+			}
+		} catch (IOException e) {
+			System.err.println("Error generating deals: " + e.getMessage());
+			System.exit(1);
+		} catch (InterruptedException e) {
+			System.exit(1);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** Generates the deals of a layout and writes them to its corpus file.
+	 * @param pool Pool running the workers.
+	 * @param l Layout file name.
+	 * @param r Source of the workers' seeds.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static void generate(ExecutorService pool, String l, SplittableRandom r) throws IOException, InterruptedException {
+		final Layout layout = Layout.load(l);
+		final int n = layout.getSlotCount();
+		if (n > Board.MAXGROUPS * Board.GROUPSIZE) {
+			throw new IOException(l + " has more tiles than there are groups for.");
+		}
+		String name = new File(l).getName();
+		if (name.endsWith(LayoutSelector.LAYOUT_EXT)) {
+			name = name.substring(0, name.length() - LayoutSelector.LAYOUT_EXT.length());
+		}
+		String out = outDir + File.separator + name + CORPUS_EXT;
+
+		long start = System.nanoTime();
+		final BlockingQueue<Deal> queue = new ArrayBlockingQueue<Deal>(QUEUESIZE);
+		List<Future<Void>> workers = new ArrayList<Future<Void>>();
+		for (int w = 0; w < threads; w++) {
+			final int count = deals / threads + ((w < deals % threads) ? 1 : 0);
+			final SplittableRandom seeds = r.split();
+			workers.add(pool.submit(new Callable<Void>() {
+				public Void call() throws InterruptedException {
+					try {
+						for (int i = 0; i < count; i++) {
+							/* Seeds that yield no deal are skipped. */
+							long s;
+							int[] values;
+							do {
+								s = seeds.nextLong();
+								values = deal(layout, strategy, s);
+							} while (values == null);
+							queue.put(new Deal(s, values));
+						}
+					} finally {
+						/* The end of the worker is marked even if it fails, so the output
+						 * never waits for it. */
+						queue.put(new Deal(0, null));
+					}
+					return null;
+				}
+			}));
+		}
+
+		RandomAccessFile f = new RandomAccessFile(out, "rw");
+		int written = 0;
+		try {
+			f.setLength(0);
+			FileChannel channel = f.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate(Math.max(BUFFERSIZE, HEADERSIZE + 16 + n));
+			buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(deals);
+
+			int running = workers.size();
+			while (running > 0) {
+				Deal d = queue.take();
+				if (d.values == null) {
+					running--;
+					continue;
+				}
+				if (buf.remaining() < 16 + n) {
+					write(channel, buf);
+				}
+				buf.putLong(d.seed).putLong(new Position(layout, d.values).getHash());
+				for (int v : d.values) {
+					buf.put((byte) v);
+				}
+				written++;
+			}
+			write(channel, buf);
+		} finally {
+			f.close();
+		}
+
+		for (Future<Void> w : workers) {
+			try {
+				w.get();
+			} catch (ExecutionException e) {
+				throw new IOException(l + ": " + e.getCause(), e.getCause());
+			}
+		}
+		if (written != deals) {
+			throw new IOException(l + ": " + written + " deals written instead of " + deals + ".");
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(out + ": " + deals + String.format(" deals, %.1f deals/sec", deals / seconds));
+	}
+
+	/** Writes out the contents of a buffer and empties it.
+	 * @param channel Channel to write to.
+	 * @param buf Buffer to write.
+	 * @throws IOException
+	 */
+	private static void write(FileChannel channel, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/** Generates the deal of a seed, as recorded in a corpus file.
+	 * A SOLVABLE deal is built from a removal order (See DealGenerator.solvable()); a VERIFIED
+	 * deal is a random deal (See DealGenerator.random()) proven winnable.
+	 * @param layout Layout to deal.
+	 * @param s Tile assignment strategy (SOLVABLE or VERIFIED).
+	 * @param dealSeed Seed of the deal.
+	 * @return The group value of the tile dealt to each slot, or null if the seed yields no
+	 * deal.
+	 */
+	public static int[] deal(Layout layout, Board.TileAssignment s, long dealSeed) {
+		Random r = new Random(dealSeed);
+		if (s == TileAssignment.VERIFIED) {
+			int[] values = DealGenerator.random(layout, Board.MAXGROUPS, r);
+			if ((values == null) || !DealGenerator.isWinnable(layout, Board.MAXGROUPS, values, new DealBudget(0))) {
+				return null;
+			}
+			return values;
+		}
+		return DealGenerator.solvable(layout, Board.MAXGROUPS, r);
+	}
+
+	/** Displays default usage flags. */
+	public static void help() {
+		System.out.println("Usage: java mahjong.DealCorpus [ -h | -n deals | -s strategy | -t threads | -seed n | -f board.layout | -o dir ]*");
+		System.out.println("Where:");
+		System.out.println("    -h                 This help");
+		System.out.println("    -n deals           Number of deals generated for each layout");
+		System.out.println("                        (currently=" + deals + ")");
+		System.out.println("    -s strategy        Use the specified tile assignment strategy (SOLVABLE or VERIFIED)");
+		System.out.println("                        (currently=" + strategy + ")");
+		System.out.println("    -t threads         Number of worker threads");
+		System.out.println("                        (currently=" + threads + ")");
+		System.out.println("    -seed n            Specify random seed");
+		System.out.println("    -f filename        Only deal the specified board layout, instead of every one in " + LayoutSelector.LAYOUTDIR);
+		System.out.println("    -o dir             Directory the corpus files are written to");
+		System.out.println("                        (currently=" + outDir + ")");
+	}
+
+	/** Method to parse argument array and set appropriate values.
+	 * @param args The argument array given to main.
+	 */
+	private static void parse(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if ("-h".equals(args[i])) {
+					help();
+					System.exit(0);
+				} else if ("-n".equals(args[i])) {
+					/* The header holds the number of deals as an int. */
+					long n = Long.parseLong(args[++i]);
+					if ((n < 1) || (n > Integer.MAX_VALUE)) {
+						throw new IllegalArgumentException("Number of deals must be between 1 and " + Integer.MAX_VALUE + ": " + n);
+					}
+					deals = (int) n;
+				} else if ("-s".equals(args[i])) {
+					strategy = Board.TileAssignment.valueOf(args[++i]);
+					if ((strategy != TileAssignment.SOLVABLE) && (strategy != TileAssignment.VERIFIED)) {
+						throw new IllegalArgumentException("Unsupported tile assignment strategy: " + strategy);
+					}
+				} else if ("-t".equals(args[i])) {
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if ("-seed".equals(args[i])) {
+					seed = Long.parseLong(args[++i]);
+				} else if ("-f".equals(args[i])) {
+					layoutFile = LayoutSelector.LAYOUTDIR + File.separator + args[++i];
+				} else if ("-o".equals(args[i])) {
+					outDir = args[++i];
+				} else {
+					throw new IllegalArgumentException("Unrecognized option: " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException iae) {
+			System.out.println(iae.getMessage());
+			help();
+			System.exit(1);
+		} catch (ArrayIndexOutOfBoundsException aioobe) {
+			System.out.println("Missing value for option: " + args[args.length - 1]);
+			help();
+			System.exit(1);
+		}
+	}
+
+}
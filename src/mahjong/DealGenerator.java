@@ -0,0 +1,410 @@
+package mahjong;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Generates deals, i.e. the group value of the tile dealt to each slot of a layout.
+ * A solvable deal is built by playing the layout out in advance: pairs of free slots are
+ * removed one after the other from a single position, and the slots of each pair are later
+ * dealt matching tiles, so the order in which the pairs were removed is a solution of the deal.
+ * A pair is only accepted if it leaves the position empty or with at least two free tiles.
+ * When no acceptable pair is found the last pairs are put back and others are tried in their
+ * place, so generation never starts over and the total work done is bounded.
+ */
+public class DealGenerator {
+	/** Maximum number of pairs tried for each pair of the solution before backtracking. */
+	private static final int MAXTRIES = 8;
+	/** Maximum number of pairs tried in total, per slot of the layout. */
+	private static final int WORKPERSLOT = 64;
+	/** Maximum number of rounds of parallel attempts before giving up. */
+	private static final int MAXROUNDS = 4;
+	/** Maximum number of positions searched to verify a random deal. */
+	public static final long VERIFYNODES = 100000;
+	/** Maximum number of rounds of random deals verified in parallel before giving up. */
+	private static final int MAXVERIFYROUNDS = 64;
+
+	/** Counts of the random deals verified, by outcome (See verified()). */
+	public static class VerifyStats {
+		/** Number of deals proven winnable. */
+		private final LongAdder accepted = new LongAdder();
+		/** Number of deals rejected because a group was dealt an odd number of tiles. */
+		private final LongAdder odd = new LongAdder();
+		/** Number of deals proven lost. */
+		private final LongAdder lost = new LongAdder();
+		/** Number of deals rejected because the search ran out of budget. */
+		private final LongAdder unknown = new LongAdder();
+
+		/** Getter.
+		 * @return Number of deals proven winnable.
+		 */
+		public long getAccepted() {
+			return this.accepted.sum();
+		}
+
+		/** Getter.
+		 * @return Number of deals rejected, for any reason.
+		 */
+		public long getRejected() {
+			return this.odd.sum() + this.lost.sum() + this.unknown.sum();
+		}
+
+		/** Getter.
+		 * @return Share of the deals verified that were rejected.
+		 */
+		public double getRejectionRate() {
+			long total = this.getAccepted() + this.getRejected();
+			return (total == 0) ? 0 : (double) this.getRejected() / total;
+		}
+
+		public String toString() {
+			return "accepted=" + this.getAccepted() + " rejected odd=" + this.odd.sum() + " lost="
+					+ this.lost.sum() + " unknown=" + this.unknown.sum()
+					+ String.format(" rejection rate=%.1f%%", 100 * this.getRejectionRate());
+		}
+	}
+
+	/** Counts of all the random deals verified so far. */
+	private static final VerifyStats STATS = new VerifyStats();
+
+	/** Not instantiable; contains only static methods. */
+	private DealGenerator() {}
+
+	/** Finds an order in which all the tiles of a layout can be removed in pairs.
+	 * @param layout Layout to play out.
+	 * @param r Random number generator to use.
+	 * @return The slots of the layout in removal order, where the slots at indices 2k and
+	 * 2k + 1 form a pair, or null if no such order was found within the work budget.
+	 */
+	public static int[] removalOrder(Layout layout, Random r) {
+		return removalOrder(layout, r, new DealBudget(0));
+	}
+
+	/** Finds an order in which all the tiles of a layout can be removed in pairs, within a
+	 * time budget.
+	 * @param layout Layout to play out.
+	 * @param r Random number generator to use.
+	 * @param limit Time budget and cancellation of the generation.
+	 * @return The slots of the layout in removal order, where the slots at indices 2k and
+	 * 2k + 1 form a pair, or null if no such order was found within the work budget or the
+	 * time budget.
+	 */
+	public static int[] removalOrder(Layout layout, Random r, DealBudget limit) {
+		int n = layout.getSlotCount();
+		if (n % 2 != 0) {
+			return null;
+		}
+
+		/* Every slot is given an invalid group value, so no tiles are indexed as matching. */
+		int[] voidValues = new int[n];
+		java.util.Arrays.fill(voidValues, -1);
+		Position p = new Position(layout, voidValues);
+
+		int[] order = new int[n];
+		int[] tries = new int[n / 2 + 1];
+		int budget = WORKPERSLOT * n;
+		int depth = 0;
+		/* Deepest point reached so far, and how many pairs to put back on the next dead end. */
+		int deepest = 0;
+		int jump = 1;
+
+		while (depth < n / 2) {
+			if (limit.isExhausted()) {
+				return null;
+			}
+			boolean found = false;
+			while ((tries[depth] < MAXTRIES) && (p.getFreeCount() >= 2) && (budget > 0)) {
+				tries[depth]++;
+				budget--;
+
+				int s1 = p.getFree(r.nextInt(p.getFreeCount()));
+				int s2;
+				do {
+					s2 = p.getFree(r.nextInt(p.getFreeCount()));
+				} while (s1 == s2);
+
+				p.remove(s1);
+				p.remove(s2);
+				/* A single free tile could never be paired, so pairs leaving one behind are
+				 * put back straight away. */
+				if (p.isEmpty() || (p.getFreeCount() >= 2)) {
+					order[2 * depth] = s1;
+					order[2 * depth + 1] = s2;
+					found = true;
+					break;
+				}
+				p.restore(s2);
+				p.restore(s1);
+			}
+
+			if (found) {
+				depth++;
+				tries[depth] = 0;
+				if (depth > deepest) {
+					deepest = depth;
+					jump = 1;
+				}
+			} else {
+				/* Backtracks by putting the previous pairs back, so that other pairs are tried
+				 * in their place. Dead ends that keep recurring are usually caused by an early
+				 * pair, so every further dead end before any progress puts back twice as many. */
+				if ((depth == 0) || (budget <= 0)) {
+					return null;
+				}
+				int target = Math.max(depth - jump, 0);
+				while (depth > target) {
+					depth--;
+					p.restore(order[2 * depth + 1]);
+					p.restore(order[2 * depth]);
+				}
+				if (jump > 1) {
+					tries[depth] = 0;
+				}
+				jump *= 2;
+			}
+		}
+
+		return order;
+	}
+
+	/** Generates a solvable deal for a layout.
+	 * @param layout Layout to deal.
+	 * @param groups Number of groups of tiles available.
+	 * @param r Random number generator to use.
+	 * @return The group value of the tile dealt to each slot, or null if the layout has more
+	 * tiles than there are groups for, or no removal order was found (See removalOrder()).
+	 */
+	public static int[] solvable(Layout layout, int groups, Random r) {
+		return solvable(layout, groups, r, new DealBudget(0));
+	}
+
+	/** Generates a solvable deal for a layout, within a time budget.
+	 * @param layout Layout to deal.
+	 * @param groups Number of groups of tiles available.
+	 * @param r Random number generator to use.
+	 * @param limit Time budget and cancellation of the generation.
+	 * @return The group value of the tile dealt to each slot, or null if the layout has more
+	 * tiles than there are groups for, or no removal order was found (See removalOrder()).
+	 */
+	public static int[] solvable(Layout layout, int groups, Random r, DealBudget limit) {
+		int n = layout.getSlotCount();
+		if (n > groups * Board.GROUPSIZE) {
+			return null;
+		}
+		limit.countAttempt();
+		int[] order = removalOrder(layout, r, limit);
+		if (order == null) {
+			return null;
+		}
+		return assignPairs(order, groups, r);
+	}
+
+	/** Generates a solvable deal for a layout by making several independent attempts at once,
+	 * one per thread of a pool. Each attempt draws from its own split of a random number
+	 * generator seeded with the given seed, and the successful attempt with the lowest index
+	 * is taken, so the deal only depends on the seed and the parallelism of the pool.
+	 * @param layout Layout to deal.
+	 * @param groups Number of groups of tiles available.
+	 * @param seed Seed from which the attempts draw their random numbers.
+	 * @param pool Pool running the attempts.
+	 * @param limit Time budget and cancellation of the generation.
+	 * @return The group value of the tile dealt to each slot, or null if no attempt succeeded
+	 * (See solvable()).
+	 */
+	public static int[] parallelSolvable(final Layout layout, final int groups, long seed,
+			ForkJoinPool pool, final DealBudget limit) {
+		SplittableRandom root = new SplittableRandom(seed);
+		int attempts = pool.getParallelism();
+
+		for (int round = 0; (round < MAXROUNDS) && !limit.isExhausted(); round++) {
+			List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>(attempts);
+			for (int i = 0; i < attempts; i++) {
+				/* Splits are taken here rather than in the attempts, so that they do not
+				 * depend on the order in which the attempts are run. */
+				final long attemptSeed = root.split().nextLong();
+				tasks.add(new Callable<int[]>() {
+					public int[] call() {
+						return solvable(layout, groups, new Random(attemptSeed), limit);
+					}
+				});
+			}
+
+			try {
+				for (Future<int[]> f : pool.invokeAll(tasks)) {
+					int[] values = f.get();
+					if (values != null) {
+						return values;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return null;
+	}
+
+	/** Deals a layout uniformly at random: the tiles of all the groups are shuffled and the
+	 * first ones are dealt to the slots.
+	 * @param layout Layout to deal.
+	 * @param groups Number of groups of tiles available.
+	 * @param r Random number generator to use.
+	 * @return The group value of the tile dealt to each slot, or null if the layout has more
+	 * tiles than there are groups for.
+	 */
+	public static int[] random(Layout layout, int groups, Random r) {
+		int n = layout.getSlotCount();
+		int[] tiles = new int[groups * Board.GROUPSIZE];
+		if (n > tiles.length) {
+			return null;
+		}
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = i / Board.GROUPSIZE;
+		}
+		/* Fisher-Yates shuffle, stopped once the tiles dealt are chosen. */
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			int j = i + r.nextInt(tiles.length - i);
+			int tmp = tiles[i];
+			tiles[i] = tiles[j];
+			tiles[j] = tmp;
+			values[i] = tiles[i];
+		}
+		return values;
+	}
+
+	/** Generates a deal uniformly at random among the winnable ones, by dealing at random and
+	 * dealing again until a deal is proven winnable by a bounded search (See Solver). Deals are
+	 * drawn and verified several at a time, one per thread of a pool, each from its own split
+	 * of a random number generator seeded with the given seed; the winnable deal with the
+	 * lowest index is taken, so the deal only depends on the seed and the parallelism of the
+	 * pool. Deals the search cannot settle within VERIFYNODES positions are rejected too.
+	 * The outcome of every deal verified is counted (See getVerifyStats()).
+	 * @param layout Layout to deal.
+	 * @param groups Number of groups of tiles available.
+	 * @param seed Seed from which the deals draw their random numbers.
+	 * @param pool Pool verifying the deals.
+	 * @param limit Time budget and cancellation of the generation.
+	 * @return The group value of the tile dealt to each slot, or null if the layout has more
+	 * tiles than there are groups for or no winnable deal was found.
+	 */
+	public static int[] verified(final Layout layout, final int groups, long seed,
+			ForkJoinPool pool, final DealBudget limit) {
+		if (layout.getSlotCount() > groups * Board.GROUPSIZE) {
+			return null;
+		}
+		SplittableRandom root = new SplittableRandom(seed);
+		int attempts = pool.getParallelism();
+
+		for (int round = 0; (round < MAXVERIFYROUNDS) && !limit.isExhausted(); round++) {
+			List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>(attempts);
+			for (int i = 0; i < attempts; i++) {
+				final long attemptSeed = root.split().nextLong();
+				tasks.add(new Callable<int[]>() {
+					public int[] call() {
+						limit.countAttempt();
+						int[] values = random(layout, groups, new Random(attemptSeed));
+						return isWinnable(layout, groups, values, limit) ? values : null;
+					}
+				});
+			}
+
+			try {
+				for (Future<int[]> f : pool.invokeAll(tasks)) {
+					int[] values = f.get();
+					if (values != null) {
+						return values;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return null;
+	}
+
+	/** Checks whether a deal is winnable, and counts the outcome.
+	 * @param layout Layout dealt.
+	 * @param groups Number of groups of tiles available.
+	 * @param values The group value of the tile dealt to each slot.
+	 * @param limit Time budget and cancellation of the generation.
+	 * @return true if the deal was proven winnable.
+	 */
+	protected static boolean isWinnable(Layout layout, int groups, int[] values, DealBudget limit) {
+		/* A group dealt an odd number of tiles can never be cleared; no search is needed. */
+		int[] count = new int[groups];
+		for (int v : values) {
+			count[v]++;
+		}
+		for (int c : count) {
+			if (c % 2 != 0) {
+				STATS.odd.increment();
+				return false;
+			}
+		}
+
+		Solver s = new Solver(new Position(layout, values), VERIFYNODES, new PositionTable(), null,
+				limit.getCancelled());
+		s.setDeadline(limit.getDeadline());
+		Solver.Result r = s.solve();
+		switch (r.getOutcome()) {
+			case WIN:
+				STATS.accepted.increment();
+				return true;
+			case LOSS:
+				STATS.lost.increment();
+				return false;
+			default:
+				STATS.unknown.increment();
+				return false;
+		}
+	}
+
+	/** Getter.
+	 * @return Counts of all the random deals verified so far.
+	 */
+	public static VerifyStats getVerifyStats() {
+		return STATS;
+	}
+
+	/** Deals matching tiles to the pairs of a removal order. Every group is dealt to at most
+	 * GROUPSIZE / 2 pairs, chosen at random.
+	 * @param order Slots in removal order, as returned by removalOrder().
+	 * @param groups Number of groups of tiles available.
+	 * @param r Random number generator to use.
+	 * @return The group value of the tile dealt to each slot.
+	 */
+	private static int[] assignPairs(int[] order, int groups, Random r) {
+		int pairsPerGroup = Board.GROUPSIZE / 2;
+		int[] labels = new int[groups * pairsPerGroup];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = i / pairsPerGroup;
+		}
+		/* Fisher-Yates shuffle of the pair labels. */
+		for (int i = labels.length - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			int tmp = labels[i];
+			labels[i] = labels[j];
+			labels[j] = tmp;
+		}
+
+		int[] values = new int[order.length];
+		for (int k = 0; k < order.length / 2; k++) {
+			values[order[2 * k]] = labels[k];
+			values[order[2 * k + 1]] = labels[k];
+		}
+		return values;
+	}
+
+}
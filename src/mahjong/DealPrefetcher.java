@@ -0,0 +1,266 @@
+package mahjong;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Deals layouts ahead of time on a background thread, so that starting a new game does not
+ * have to wait for the layout to be read and dealt (See Board.setPrefetcher()). A small
+ * queue of deals is kept for each layout and strategy used recently, and topped up as deals
+ * are taken from it. Each deal of a layout and strategy is made from a random number
+ * generator of its own, seeded from the prefetcher's seed, the layout, the strategy and the
+ * index of the deal in their sequence. The index of the next deal is kept even when the
+ * queue is dropped to make room for other layouts, so a layout dealt again carries on with
+ * its sequence instead of repeating it.
+ * With a seed given by the user, taking a deal waits for it however long it takes, unless
+ * the board cancels it, and the deals are made without a time budget, so every layout is
+ * dealt the same sequence of deals as long as none is cancelled. Otherwise, taking a deal waits for
+ * it no longer than the board's own deal budget allows (See Board.setDealMillis()); a deal
+ * not ready in time is kept for a later game, and the board deals at random instead, since
+ * its budget has run out. A deal cancelled by the board, or that failed, is dropped.
+ */
+public class DealPrefetcher {
+	/** Default number of deals kept ready for each layout. */
+	public static final int QUEUESIZE = 2;
+	/** Maximum number of layouts for which deals are kept. */
+	public static final int MAXQUEUES = 4;
+	/** Separator of the layout file name and the strategy in the keys of the queues. */
+	private static final String KEYSEPARATOR = "#";
+	/** Longest wait, in milliseconds, between two checks of the board's deal budget. */
+	private static final long WAITMILLIS = 50;
+
+	/** Deal made or being made ahead of time. */
+	private static class Job {
+		/** Index of the deal in the sequence of its layout and strategy. */
+		long index;
+		/** Group value of the tile dealt to each slot, once dealt. */
+		Future<int[]> future;
+		/** Budget of the deal, holding its attempts and whether it fell back, or null until
+		 * the deal starts. */
+		volatile DealBudget budget;
+
+		/** Cancels the deal, stopping it if it has started. */
+		void cancel() {
+			(this.future).cancel(false);
+			DealBudget b = this.budget;
+			if (b != null) b.cancel();
+		}
+	}
+
+	/** Deals made or being made for one layout and strategy. */
+	private static class Queue {
+		/** Deals, in the order they were started. */
+		final ArrayDeque<Job> deals = new ArrayDeque<Job>();
+		/** Index of the next deal to start. */
+		long next;
+		/** Time budget of each deal, in milliseconds, or 0 for none. */
+		long dealMillis;
+
+		Queue(long next, long dealMillis) {
+			this.next = next;
+			this.dealMillis = dealMillis;
+		}
+	}
+
+	/** Number of deals kept ready for each layout. */
+	private final int size;
+	/** Seed of the deals. */
+	private final long seed;
+	/** Whether the seed was given by the user, so that the deals must not depend on timing. */
+	private final boolean seeded;
+	/** Queue of each layout and strategy, in least recently used order. */
+	private final LinkedHashMap<String, Queue> queues;
+	/** Index of the first deal not taken yet of each layout and strategy ever dealt, kept
+	 * when their queue is dropped. */
+	private final HashMap<String, Long> taken = new HashMap<String, Long>();
+	/** Thread making the deals, one after the other. */
+	private final ExecutorService executor;
+
+	/** Constructor.
+	 * @param size Number of deals kept ready for each layout, at least one.
+	 * @param seed Seed of the deals, for repeatability, or 0 for a random one.
+	 */
+	public DealPrefetcher(int size, long seed) {
+		this.size = Math.max(size, 1);
+		this.seed = (seed == 0L) ? (new Random()).nextLong() : seed;
+		this.seeded = (seed != 0L);
+		this.queues = new LinkedHashMap<String, Queue>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Queue> eldest) {
+				if (size() <= MAXQUEUES) {
+					return false;
+				}
+				for (Job j : eldest.getValue().deals) {
+					j.cancel();
+				}
+				return true;
+			}
+		};
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "DealPrefetcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/** Starts dealing a layout ahead of time, if it is not already.
+	 * @param layoutFile Name of the layout file.
+	 * @param s Tile assignment strategy.
+	 * @param dealMillis Time budget of each deal, in milliseconds, or 0 for none (See
+	 * Board.getDealMillis()).
+	 */
+	public synchronized void prefetch(String layoutFile, Board.TileAssignment s, long dealMillis) {
+		this.queue(layoutFile, s, dealMillis);
+	}
+
+	/** Takes the next deal of a layout, waiting for it if it is not ready yet, and starts
+	 * another one in its place. The attempts made at the deal, and whether it fell back to a
+	 * random one, are added to the board's budget.
+	 * @param layoutFile Name of the layout file.
+	 * @param s Tile assignment strategy.
+	 * @param budget The board's budget for the deal, which bounds the wait unless the
+	 * prefetcher was given a seed.
+	 * @param dealMillis The board's time budget of each deal, in milliseconds, or 0 for none,
+	 * used for the deals started from now on (See Board.getDealMillis()).
+	 * @return The group value of the tile dealt to each slot, or null for the VOID strategy or
+	 * if the deal was not ready before the budget ran out or was cancelled.
+	 * @throws IOException If the layout could not be read or dealt.
+	 */
+	public int[] take(String layoutFile, Board.TileAssignment s, DealBudget budget, long dealMillis) throws IOException {
+		if (s == Board.TileAssignment.VOID) {
+			return null;
+		}
+		Job next;
+		synchronized (this) {
+			next = this.queue(layoutFile, s, dealMillis).deals.poll();
+		}
+
+		int[] values = null;
+		try {
+			values = this.await(next.future, budget);
+		} finally {
+			synchronized (this) {
+				Queue q = this.queue(layoutFile, s, dealMillis);
+				if ((values == null) && !(next.future).isDone() && !(budget.getCancelled()).get()) {
+					/* The deal is still on its way; it goes to a later game. */
+					q.deals.addFirst(next);
+				} else {
+					/* The deal is used, or dropped because it was cancelled or failed, and
+					 * the sequence carries on with the next one. */
+					if (values == null) next.cancel();
+					(this.taken).put(this.key(layoutFile, s), next.index + 1);
+				}
+				this.fill(q, layoutFile, s);
+			}
+		}
+		if (values != null) {
+			budget.add(next.budget);
+		}
+		return values;
+	}
+
+	/** Waits for a deal, checking the board's budget every WAITMILLIS. Unless the prefetcher
+	 * was given a seed, the wait ends when the budget runs out.
+	 * @param next Deal being made.
+	 * @param budget The board's budget for the deal.
+	 * @return The group value of the tile dealt to each slot, or null if the budget ran out or
+	 * was cancelled first.
+	 * @throws IOException If the layout could not be read or dealt.
+	 */
+	private int[] await(Future<int[]> next, DealBudget budget) throws IOException {
+		while (true) {
+			long wait = WAITMILLIS;
+			if (!this.seeded && (budget.getDeadline() != 0)) {
+				wait = Math.min(wait, (budget.getDeadline() - System.nanoTime() + 999999) / 1000000);
+			}
+			try {
+				return next.get(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				if (this.seeded ? (budget.getCancelled()).get() : budget.isExhausted()) {
+					return null;
+				}
+			} catch (CancellationException e) {
+				return null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while dealing.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/** Builds the key of the queue of a layout and strategy.
+	 * @param layoutFile Name of the layout file.
+	 * @param s Tile assignment strategy.
+	 * @return The key.
+	 */
+	private String key(String layoutFile, Board.TileAssignment s) {
+		return layoutFile + KEYSEPARATOR + s;
+	}
+
+	/** Looks up the queue of a layout, creating and filling it if needed. (The caller holds
+	 * the prefetcher's lock.)
+	 * @param layoutFile Name of the layout file.
+	 * @param s Tile assignment strategy.
+	 * @param dealMillis Time budget of each deal started from now on, or 0 for none.
+	 * @return The queue.
+	 */
+	private Queue queue(String layoutFile, Board.TileAssignment s, long dealMillis) {
+		String key = this.key(layoutFile, s);
+		Queue q = (this.queues).get(key);
+		if (q == null) {
+			Long first = (this.taken).get(key);
+			q = new Queue((first == null) ? 0 : first, dealMillis);
+			(this.queues).put(key, q);
+			this.fill(q, layoutFile, s);
+		}
+		q.dealMillis = dealMillis;
+		return q;
+	}
+
+	/** Starts deals until the queue holds as many as it should. (The caller holds the
+	 * prefetcher's lock.)
+	 * @param q Queue to fill.
+	 * @param layoutFile Name of the layout file.
+	 * @param s Tile assignment strategy.
+	 */
+	private void fill(final Queue q, final String layoutFile, final Board.TileAssignment s) {
+		while (q.deals.size() < this.size) {
+			final Job j = new Job();
+			j.index = q.next++;
+			final long dealSeed = (new SplittableRandom((this.seed ^ this.key(layoutFile, s).hashCode())
+					+ j.index * 0x9E3779B97F4A7C15L)).nextLong();
+			/* A seeded deal must not depend on how long it takes. */
+			final long millis = this.seeded ? 0 : q.dealMillis;
+			j.future = (this.executor).submit(new Callable<int[]>() {
+				public int[] call() throws IOException {
+					Layout layout = Layout.load(layoutFile);
+					j.budget = new DealBudget(millis);
+					return Board.deal(layout, layoutFile, s, new Random(dealSeed), j.budget);
+				}
+			});
+			q.deals.add(j);
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+package mahjong;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Estimates how hard a deal is by Monte-Carlo rollouts: the position is played out to the
+ * end many times, each time choosing the moves at random or greedily (See Player), and the
+ * proportion of rollouts that clear the board estimates the chance of winning it. The
+ * rollouts run in rounds on every thread of a fork/join pool, each batch with its own
+ * random stream split from the seed, so the estimate only depends on the seed and the
+ * pool's parallelism. Rollouts stop as soon as the confidence interval of the estimate is
+ * narrow enough, or the rollout budget is spent.
+ */
+public class DifficultyRater {
+	/** Ways of choosing the moves of a rollout.
+	 * A RANDOM rollout removes a pair chosen uniformly at random.
+	 * A GREEDY rollout removes a pair that frees the most tiles, chosen at random on ties. */
+	public enum Rollout { RANDOM, GREEDY };
+
+	/** Default maximum number of rollouts. */
+	public static final int MAXROLLOUTS = 4096;
+	/** Default half width of the confidence interval at which rollouts stop. */
+	public static final double HALFWIDTH = 0.02;
+	/** Number of rollouts played by each task. */
+	private static final int BATCH = 64;
+	/** Normal quantile of the 95% confidence interval. */
+	private static final double Z = 1.96;
+
+	/** Position rated. */
+	private final Position p;
+	/** Way of choosing the moves of the rollouts. */
+	private final Rollout rollout;
+	/** Maximum number of rollouts. */
+	private final int maxRollouts;
+	/** Half width of the confidence interval at which rollouts stop. */
+	private final double halfWidth;
+
+	/** Estimate of the chance of winning a position. */
+	public static class Rating {
+		/** Number of rollouts played. */
+		private final int rollouts;
+		/** Number of rollouts that cleared the board. */
+		private final int wins;
+
+		/** Constructor.
+		 * @param rollouts Number of rollouts played.
+		 * @param wins Number of rollouts that cleared the board.
+		 */
+		protected Rating(int rollouts, int wins) {
+			this.rollouts = rollouts;
+			this.wins = wins;
+		}
+
+		/** Getter.
+		 * @return Number of rollouts played.
+		 */
+		public int getRollouts() {
+			return this.rollouts;
+		}
+
+		/** Getter.
+		 * @return Estimated chance of winning, i.e. the proportion of rollouts won.
+		 */
+		public double getWinProbability() {
+			return (this.rollouts == 0) ? 0 : (double) this.wins / this.rollouts;
+		}
+
+		/** Getter.
+		 * @return Lower bound of the 95% Wilson confidence interval of the chance of winning.
+		 */
+		public double getLow() {
+			return this.center() - this.halfWidth();
+		}
+
+		/** Getter.
+		 * @return Upper bound of the 95% Wilson confidence interval of the chance of winning.
+		 */
+		public double getHigh() {
+			return this.center() + this.halfWidth();
+		}
+
+		/** Getter.
+		 * @return Difficulty score, from 0 for deals always won to 100 for deals never won.
+		 */
+		public double getDifficulty() {
+			return 100 * (1 - this.getWinProbability());
+		}
+
+		/** Computes the center of the Wilson interval.
+		 * @return Center of the interval.
+		 */
+		private double center() {
+			if (this.rollouts == 0) return 0.5;
+			double n = this.rollouts;
+			return (this.getWinProbability() + Z * Z / (2 * n)) / (1 + Z * Z / n);
+		}
+
+		/** Computes the half width of the Wilson interval.
+		 * @return Half width of the interval.
+		 */
+		protected double halfWidth() {
+			if (this.rollouts == 0) return 0.5;
+			double n = this.rollouts;
+			double q = this.getWinProbability();
+			return Z * Math.sqrt(q * (1 - q) / n + Z * Z / (4 * n * n)) / (1 + Z * Z / n);
+		}
+
+		public String toString() {
+			return String.format("win=%.3f [%.3f, %.3f] difficulty=%.1f rollouts=%d",
+					this.getWinProbability(), this.getLow(), this.getHigh(),
+					this.getDifficulty(), this.rollouts);
+		}
+	}
+
+	/** Constructs a rater for a position, with the default budget and precision.
+	 * @param p Position to rate (It is copied, not modified).
+	 * @param rollout Way of choosing the moves of the rollouts.
+	 */
+	public DifficultyRater(Position p, Rollout rollout) {
+		this(p, rollout, MAXROLLOUTS, HALFWIDTH);
+	}
+
+	/** Constructs a rater for a position.
+	 * @param p Position to rate (It is copied, not modified).
+	 * @param rollout Way of choosing the moves of the rollouts.
+	 * @param maxRollouts Maximum number of rollouts.
+	 * @param halfWidth Half width of the confidence interval at which rollouts stop.
+	 */
+	public DifficultyRater(Position p, Rollout rollout, int maxRollouts, double halfWidth) {
+		this.p = new Position(p);
+		this.rollout = rollout;
+		this.maxRollouts = maxRollouts;
+		this.halfWidth = halfWidth;
+	}
+
+	/** Rates the position of a board with random rollouts on the common fork/join pool.
+	 * @param b Board to rate (It is not modified).
+	 * @param seed Seed of the rollouts.
+	 * @return Estimate of the chance of winning the board.
+	 */
+	public static Rating rate(Board b, long seed) {
+		return new DifficultyRater(b.getPosition(), Rollout.RANDOM).rate(ForkJoinPool.commonPool(), seed);
+	}
+
+	/** Plays rollouts until the estimate is precise enough or the budget is spent.
+	 * @param pool Pool running the rollouts.
+	 * @param seed Seed of the rollouts.
+	 * @return Estimate of the chance of winning the position.
+	 */
+	public Rating rate(ForkJoinPool pool, long seed) {
+		SplittableRandom r = new SplittableRandom(seed);
+		int rollouts = 0;
+		int wins = 0;
+		Rating rating = new Rating(0, 0);
+
+		while ((rollouts < this.maxRollouts) && (rating.halfWidth() > this.halfWidth)) {
+			/* A round gives every thread a batch, within the budget left. */
+			List<Batch> batches = new ArrayList<Batch>();
+			for (int i = 0; (i < pool.getParallelism()) && (rollouts < this.maxRollouts); i++) {
+				int n = Math.min(BATCH, this.maxRollouts - rollouts);
+				batches.add(new Batch(n, r.split()));
+				rollouts += n;
+			}
+			for (Batch b : batches) {
+				pool.execute(b);
+			}
+			for (Batch b : batches) {
+				wins += b.join();
+			}
+			rating = new Rating(rollouts, wins);
+		}
+		return rating;
+	}
+
+	/** Plays the position out once.
+	 * @param r Source of the choices.
+	 * @return true if the rollout cleared the board.
+	 */
+	protected boolean play(SplittableRandom r) {
+		return playOut(new Position(this.p), this.rollout, r);
+	}
+
+	/** Plays a position out to the end.
+	 * @param q Position, which is left as the rollout ends.
+	 * @param rollout Way of choosing the moves.
+	 * @param r Source of the choices.
+	 * @return true if the rollout cleared the board.
+	 */
+	protected static boolean playOut(Position q, Rollout rollout, SplittableRandom r) {
+		while (q.getMatchablePairCount() > 0) {
+			int[] pairs = Player.pairs(q);
+			int i = choose(q, rollout, pairs, r);
+			q.remove(pairs[i]);
+			q.remove(pairs[i + 1]);
+		}
+		return q.isEmpty();
+	}
+
+	/** Chooses the next move of a rollout.
+	 * @param q Position (It is restored before returning).
+	 * @param rollout Way of choosing the move.
+	 * @param pairs Slots of the pairs that can be removed, two by two (See Player.pairs()).
+	 * @param r Source of the choices.
+	 * @return Index into pairs of the first slot of the pair chosen.
+	 */
+	protected static int choose(Position q, Rollout rollout, int[] pairs, SplittableRandom r) {
+		if (rollout == Rollout.RANDOM) {
+			return 2 * r.nextInt(pairs.length / 2);
+		}
+		int i = -1;
+		int bestFreed = -1;
+		int ties = 0;
+		for (int j = 0; j < pairs.length; j += 2) {
+			int freed = Player.freed(q, pairs[j], pairs[j + 1]);
+			if (freed > bestFreed) {
+				i = j;
+				bestFreed = freed;
+				ties = 1;
+			} else if ((freed == bestFreed) && (r.nextInt(++ties) == 0)) {
+				/* Each of the best pairs is kept with equal probability. */
+				i = j;
+			}
+		}
+		return i;
+	}
+
+	/** Batch of rollouts, with its own random stream. */
+	private class Batch extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		/** Number of rollouts. */
+		private final int n;
+		/** Source of the choices. */
+		private final SplittableRandom r;
+
+		/** Constructor.
+		 * @param n Number of rollouts.
+		 * @param r Source of the choices.
+		 */
+		Batch(int n, SplittableRandom r) {
+			this.n = n;
+			this.r = r;
+		}
+
+		protected Integer compute() {
+			int wins = 0;
+			for (int i = 0; i < this.n; i++) {
+				if (play(this.r)) wins++;
+			}
+			return wins;
+		}
+	}
+
+}
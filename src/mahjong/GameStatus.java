@@ -19,9 +19,13 @@ public class GameStatus {
 		return this.status;
 	}
 
+	/** Updates the status from the board's live tile and matchable pair counters, so it
+	 * costs the same regardless of the size of the board. A game that still has pairs to
+	 * remove is also over as soon as it is proven lost (See DeadlockDetector). */
 	public void updateStatus () {
-		if ((this.b).isEmpty()) this.status = Status.WIN;
-		else if (!(this.b).isSolvable()) this.status = Status.DEADLOCK;
+		if ((this.b).getTileCount() == 0) this.status = Status.WIN;
+		else if ((this.b).getMatchablePairCount() == 0) this.status = Status.DEADLOCK;
+		else if ((this.b).isLost()) this.status = Status.DEADLOCK;
 		else if (this.status != Status.PAUSE) {
 			this.status = Status.PLAYING;
 		}
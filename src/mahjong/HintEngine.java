@@ -0,0 +1,357 @@
+package mahjong;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Recommends moves that keep the game on a board winnable, by solving the board's position
+ * (See Solver).
+ * Recommendations are cached by the canonical hash of the position they were made for, in a
+ * least recently used cache. When a position is solved, every position along the winning
+ * line is cached at once, so following the hints, asking again, or undoing and redoing moves
+ * is answered without searching. A move changes the position and so the cache entry looked
+ * up, so entries never have to be invalidated while the same layout is on the board.
+ * After every move the hint for the new position is computed on a background thread, within
+ * a small time budget, so it is usually ready by the time it is asked for. The computation
+ * is cancelled as soon as the board changes again. Asking for a hint never waits for a
+ * search: a hint that is not known yet is searched on the background thread, without the
+ * time budget, and the hint listener is told when it is ready. As the player is then
+ * waiting for it, that search uses every thread of the common fork/join pool (See
+ * ParallelSolver).
+ */
+public class HintEngine implements BoardListener {
+	/** Maximum number of positions cached. */
+	public static final int CACHESIZE = 1024;
+	/** Maximum number of positions searched for a hint. */
+	public static final long MAXNODES = 200000;
+	/** Time budget of the background computation of a hint, in milliseconds. */
+	public static final long PRECOMPUTEMILLIS = 250;
+
+	/** Cached entry for positions in which no move is known to keep the game winnable. */
+	private static final int[] NOHINT = new int[0];
+
+	/** Board the hints are for. */
+	private final Board b;
+	/** Recommended pair of slots for each cached position, in least recently used order. */
+	private final LinkedHashMap<Long, int[]> cache;
+	/** Thread computing the hints in the background. */
+	private final ExecutorService executor;
+
+	/** Background computation in progress, or null. */
+	private Future<?> pending;
+	/** Set to cancel the background computation in progress. */
+	private AtomicBoolean pendingStop;
+	/** Canonical hash of the position of the background computation in progress. */
+	private long pendingHash;
+	/** Whether no hint has been looked up since the last move. */
+	private boolean awaiting;
+	/** Told when a hint searched in the background is ready, or null. */
+	private volatile Runnable listener;
+
+	/** Number of hints asked for (See requestHint()) found in the cache. */
+	private long hits;
+	/** Number of hints asked for that were not known yet. */
+	private long misses;
+	/** Number of moves after which the hint was ready when first looked up. */
+	private long ready;
+	/** Number of moves after which the hint was not ready when first looked up. */
+	private long late;
+
+	/** Constructor. The engine listens to the moves made on the board (See BoardListener).
+	 * @param b Board the hints are for.
+	 */
+	public HintEngine(Board b) {
+		this.b = b;
+		this.cache = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+				return size() > CACHESIZE;
+			}
+		};
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "HintEngine");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		b.addBoardListener(this);
+	}
+
+	/** Recommends a move for the current position of the board, without waiting. Meant to
+	 * be called whenever the hint is displayed, e.g. on every repaint. If the hint is not
+	 * known yet, it is searched on the background thread, unless it already is, and the hint
+	 * listener is told when it is ready (See setHintListener()).
+	 * @return The pair of tiles to remove, or null if the position is lost, could not be
+	 * solved within the search budget, or is still being searched.
+	 */
+	public Tile[] peekHint() {
+		return this.hint(false);
+	}
+
+	/** Recommends a move for the current position of the board, without waiting, when the
+	 * player asks for a hint. Same as peekHint(), but the request is counted (See getHits()).
+	 * @return The pair of tiles to remove, or null if the position is lost, could not be
+	 * solved within the search budget, or is still being searched.
+	 */
+	public Tile[] requestHint() {
+		return this.hint(true);
+	}
+
+	/** Looks up the hint for the current position of the board, and searches it in the
+	 * background if it is not known.
+	 * @param counted Whether the hint was asked for by the player, and is counted as a hit
+	 * or a miss. The first lookup after a move is counted as ready or late either way.
+	 * @return The pair of tiles to remove, or null.
+	 */
+	private Tile[] hint(boolean counted) {
+		Position p = (this.b).getLivePosition();
+		int[] pair;
+
+		synchronized (this) {
+			pair = this.lookup(p);
+			if (this.awaiting) {
+				this.awaiting = false;
+				if (pair != null) {
+					this.ready++;
+				} else {
+					this.late++;
+				}
+			}
+			if (counted) {
+				if (pair != null) {
+					this.hits++;
+				} else {
+					this.misses++;
+				}
+			}
+			if ((pair == null) && !p.isEmpty() && (p.getTileCount() % 2 == 0) && !this.isSearching(p)) {
+				this.search(new Position(p), false);
+			}
+		}
+
+		if ((pair == null) || (pair.length == 0)) {
+			return null;
+		}
+		return new Tile[] { (this.b).getTile(pair[0]), (this.b).getTile(pair[1]) };
+	}
+
+	/** Waits for the background search in progress, if any, to finish.
+	 * @param millis Maximum time to wait, in milliseconds.
+	 * @return true if no search is in progress any more.
+	 * @throws InterruptedException
+	 */
+	protected boolean awaitSearch(long millis) throws InterruptedException {
+		Future<?> f;
+		synchronized (this) {
+			f = this.pending;
+		}
+		if (f == null) {
+			return true;
+		}
+		try {
+			f.get(millis, TimeUnit.MILLISECONDS);
+		} catch (CancellationException e) {
+			/* The board changed in the meantime. */
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (TimeoutException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/** Looks up the cached recommendation for a position. (The caller holds the engine's
+	 * lock.)
+	 * @param p Position.
+	 * @return The recommended pair of slots, NOHINT, or null if the position is not cached.
+	 */
+	private int[] lookup(Position p) {
+		int[] pair = (this.cache).get(p.getCanonicalHash());
+		if ((pair != null) && (pair.length > 0) && !this.isValid(p, pair)) {
+			return null;
+		}
+		return pair;
+	}
+
+	/** Solves a position and caches the recommendations along the winning line, if any. The
+	 * search runs without holding the engine's lock.
+	 * @param p Position to solve.
+	 * @param stop Set to cancel the search, or null.
+	 * @param background Whether the search is a background one, limited to PRECOMPUTEMILLIS.
+	 * Positions a background search gives up on, or a cancelled search, are not cached as
+	 * having no hint.
+	 * @return The recommended pair of slots, or NOHINT.
+	 */
+	protected int[] solve(Position p, AtomicBoolean stop, boolean background) {
+		if (p.isEmpty()) {
+			return NOHINT;
+		}
+		Solver.Result r;
+		if (background) {
+			Solver s = new Solver(p, MAXNODES, new PositionTable(), null, stop);
+			s.setDeadline(System.nanoTime() + PRECOMPUTEMILLIS * 1000000L);
+			r = s.solve();
+		} else {
+			ParallelSolver s = new ParallelSolver(p, MAXNODES, new ConcurrentPositionTable((int) (2 * MAXNODES)),
+					(stop != null) ? stop : new AtomicBoolean());
+			r = s.solve(ForkJoinPool.commonPool());
+		}
+
+		synchronized (this) {
+			if (r.getOutcome() != Solver.Outcome.WIN) {
+				/* A search that was cancelled tells nothing about the position. */
+				boolean cancelled = (stop != null) && stop.get();
+				if ((!background && !cancelled) || (r.getOutcome() == Solver.Outcome.LOSS)) {
+					(this.cache).put(p.getCanonicalHash(), NOHINT);
+				}
+				return NOHINT;
+			}
+
+			int[] moves = r.getMoves();
+			Position q = new Position(p);
+			for (int i = 0; i < moves.length; i += 2) {
+				(this.cache).put(q.getCanonicalHash(), new int[] { moves[i], moves[i + 1] });
+				q.remove(moves[i]);
+				q.remove(moves[i + 1]);
+			}
+			return new int[] { moves[0], moves[1] };
+		}
+	}
+
+	/** Cancels the background computation in progress and, once a move is complete, starts
+	 * computing the hint for the new position of the board in the background.
+	 * @param board Board that changed.
+	 */
+	public void boardChanged(Board board) {
+		Position p = board.getLivePosition();
+
+		synchronized (this) {
+			this.cancelPending();
+			/* An odd number of tiles means only half of a pair has been removed or put back. */
+			this.awaiting = (p.getTileCount() % 2 == 0) && !p.isEmpty();
+			if (!this.awaiting || (this.lookup(p) != null)) {
+				return;
+			}
+			this.search(new Position(p), true);
+		}
+	}
+
+	/** Checks whether a position is being searched in the background. (The caller holds the
+	 * engine's lock.)
+	 * @param p Position.
+	 * @return true if a search of the position is in progress.
+	 */
+	private boolean isSearching(Position p) {
+		return (this.pending != null) && !(this.pending).isDone() && (this.pendingHash == p.getCanonicalHash());
+	}
+
+	/** Starts searching a position on the background thread, in place of the search in
+	 * progress, and tells the hint listener when it is done. (The caller holds the engine's
+	 * lock.)
+	 * @param p Position to solve, a copy of the board's since the search reads it after the
+	 * board has moved on.
+	 * @param background Whether the search is limited to PRECOMPUTEMILLIS (See solve()).
+	 */
+	private void search(final Position p, final boolean background) {
+		this.cancelPending();
+		final AtomicBoolean stop = new AtomicBoolean();
+		this.pendingStop = stop;
+		this.pendingHash = p.getCanonicalHash();
+		this.pending = (this.executor).submit(new Runnable() {
+			public void run() {
+				if (stop.get()) {
+					return;
+				}
+				solve(p, stop, background);
+				/* The stop flag is also set by a parallel search that wins, so whether the
+				 * search was cancelled is told by whether it is still the pending one. */
+				boolean current;
+				synchronized (HintEngine.this) {
+					current = (pendingStop == stop);
+				}
+				Runnable l = listener;
+				if (current && (l != null)) {
+					l.run();
+				}
+			}
+		});
+	}
+
+	/** Cancels the background computation in progress, if any. (The caller holds the engine's
+	 * lock.) */
+	private void cancelPending() {
+		if (this.pending != null) {
+			(this.pendingStop).set(true);
+			(this.pending).cancel(false);
+			this.pending = null;
+			this.pendingStop = null;
+		}
+	}
+
+	/** Checks whether a cached pair can be removed from a position, in case two positions
+	 * share a hash.
+	 * @param p Position.
+	 * @param pair Pair of slots.
+	 * @return true if the pair is a move in the position.
+	 */
+	private boolean isValid(Position p, int[] pair) {
+		return p.isPlayable(pair[0]) && p.isPlayable(pair[1]) && (pair[0] != pair[1])
+				&& (p.getValue(pair[0]) == p.getValue(pair[1]));
+	}
+
+	/** Setter.
+	 * @param listener Told, on the background thread, when a hint searched in the background
+	 * is ready, e.g. to repaint the board; or null.
+	 */
+	public void setHintListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/** Empties the cache, e.g. when the board is dealt again from another layout. */
+	public synchronized void clear() {
+		this.cancelPending();
+		(this.cache).clear();
+	}
+
+	/** Getter.
+	 * @return Number of hints asked for found in the cache.
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/** Getter.
+	 * @return Number of hints asked for that were not known yet.
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/** Getter.
+	 * @return Number of moves after which the hint was ready, computed in the background or
+	 * cached, when first looked up, whether to be shown (See peekHint()) or asked for.
+	 */
+	public synchronized long getReadyCount() {
+		return this.ready;
+	}
+
+	/** Getter.
+	 * @return Number of moves after which the hint was not ready when first looked up.
+	 */
+	public synchronized long getLateCount() {
+		return this.late;
+	}
+
+}
@@ -2,12 +2,13 @@ package mahjong;
 
 import java.awt.BorderLayout;
 import java.awt.Container;
+import java.awt.GridLayout;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.File;
 import java.io.IOException;
 
 import javax.swing.JFrame;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 
 /** The JFrame that defines the entire GUI.
@@ -18,6 +19,7 @@ public class JViewer extends JFrame {
 	private Viewer drawingArea = null;
 	private Board b;
 	private TimerLabel timerArea;
+	private WinMeterLabel winMeter;
 	private LayoutSelector layoutselector;
 	
 	/** Main constructor to use.
@@ -48,12 +50,15 @@ public class JViewer extends JFrame {
 		
 		this.timerArea = new TimerLabel();
 		this.timerArea.setOpaque(true);
+		this.winMeter = new WinMeterLabel(this.b);
+		this.winMeter.setOpaque(true);
 	
 		this.layoutselector = new LayoutSelector(this.drawingArea);
 		
 		/* Inside there are have two panels; one to contain buttons, the other to contain the
 		 * drawing area. */
 		this.drawingArea = new Viewer(this.b, timerArea, this.layoutselector);
+		(this.drawingArea).setWinMeter(this.winMeter);
 //		ButtonManager buttonList = new ButtonManager(this.drawingArea);
 		ButtonManager buttonList = new ButtonManager(this);
 		
@@ -64,7 +69,10 @@ public class JViewer extends JFrame {
 		JScrollPane scroller = new JScrollPane(this.drawingArea);
 		scroller.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
 		
-		c.add(timerArea,BorderLayout.NORTH);
+		JPanel labels = new JPanel(new GridLayout(1, 2));
+		labels.add(timerArea);
+		labels.add(winMeter);
+		c.add(labels, BorderLayout.NORTH);
 		
 		c.add(scroller, BorderLayout.CENTER);
 		c.add(buttonList, BorderLayout.SOUTH);
@@ -80,17 +88,26 @@ public class JViewer extends JFrame {
 		String s = (this.layoutselector).showLayoutSelectorDialog();
 		if (!s.equals(LayoutSelector.getLayoutTitle((b.getLayoutFile().substring((LayoutSelector.LAYOUTDIR + java.io.File.separator).length()))))) {			
 			Board board = (this.drawingArea).getBoard();
-			board.setLayoutFile(LayoutSelector.LAYOUTDIR + File.separator + s.toLowerCase() + LayoutSelector.LAYOUT_EXT);
+			board.setLayoutFile((this.layoutselector).getLayoutFile(s));
 			board.reset();
 			
 			(this.drawingArea).setHighScoreManager(s);
-			
-			this.setTitle("Mahjongg: " + s);
 		}
+		this.setLayoutTitle(s);
 		(this.layoutselector).layoutSelected();
 		(this.drawingArea).repaint();
 	}
 
+	/** Sets the window title to the title of the layout on the board, noting when the deal
+	 * fell back to a random one that may not be solvable (See Board.wasFallback()).
+	 * @param layoutTitle Title of the layout.
+	 */
+	public void setLayoutTitle(String layoutTitle) {
+		String title = "Mahjongg: " + layoutTitle;
+		if ((this.b).wasFallback()) title += " (random deal, may not be solvable)";
+		this.setTitle(title);
+	}
+
 	/** Getter for actual Board GUI component.
 	 * @return The JPanel containing the board itself.
 	 */
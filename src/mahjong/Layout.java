@@ -0,0 +1,641 @@
+package mahjong;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The geometry of a board layout, compiled once from a layout file.
+ * Every position that holds a tile in the layout is a slot, numbered in level, row, column
+ * order. For every slot the layout stores its coordinates together with the slots that
+ * neighbour it on the left and right and the slots that cover it from above or that it covers
+ * below, so that deciding whether a tile is free only involves a few small int arrays.
+ * A layout is immutable and can be shared by every board dealt from it.
+ * Layouts are read either from the text format (See 'LayoutFileSpecifications.txt') or from
+ * a compact binary format, recognised by the BINARY_EXT extension: a header holding the magic
+ * number, the format version, the width, height and depth of the board, the number of groups
+ * and the number of slots, all as 32-bit integers, followed by the x, y and z coordinates of
+ * every slot in slot order, each as an unsigned 16-bit integer. Binary layout files are
+ * rejected unless their number of groups is between 1 and Board.MAXGROUPS and their slots are
+ * in level, row, column order.
+ */
+public class Layout {
+	/** Extension of layout files in the binary format. */
+	public static final String BINARY_EXT = ".layoutbin";
+	/** Magic number at the start of a binary layout file ("MJLB"). */
+	private static final int MAGIC = 0x4D4A4C42;
+	/** Version of the binary layout format. */
+	private static final int VERSION = 1;
+	/** Size in bytes of the header of a binary layout file. */
+	private static final int HEADERSIZE = 7 * 4;
+	/** Size in bytes of the coordinates of a single slot in a binary layout file. */
+	private static final int SLOTSIZE = 3 * 2;
+	/** Empty adjacency list. */
+	private static final int[] NONE = new int[0];
+	/** Maximum number of compiled layouts kept in the cache. */
+	private static final int CACHESIZE = 16;
+
+	/** Compiled layouts, keyed by layout file path and modification time, least recently
+	 * used first. */
+	private static final Map<String, Layout> CACHE = new LinkedHashMap<String, Layout>(CACHESIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Layout> eldest) {
+			return size() > CACHESIZE;
+		}
+	};
+
+	/** Name of the layout file the layout was compiled from. */
+	private final String file;
+
+	/** Dimensions of the layout measured in terms of half tile (width) length. */
+	private final int width;
+	/** Dimensions of the layout measured in terms of half tile (height) length. */
+	private final int height;
+	/** Depth of the layout in terms of layers. */
+	private final int depth;
+	/** Number of groups of tiles the layout is meant to be dealt with. */
+	private final int groups;
+
+	/** Coordinates of each slot. */
+	private final int[] x;
+	/** Coordinates of each slot. */
+	private final int[] y;
+	/** Coordinates of each slot. */
+	private final int[] z;
+
+	/** Slots directly left of each slot, on the same level. */
+	private final int[][] left;
+	/** Slots directly right of each slot, on the same level. */
+	private final int[][] right;
+	/** Slots on the level above that cover each slot, completely or partially. */
+	private final int[][] above;
+	/** Slots on the level below that each slot covers, completely or partially. */
+	private final int[][] below;
+
+	/** Slot occupying each cell, in level, row, column order, or -1 for empty cells. */
+	private final int[] cellSlot;
+	/** Slots that each slot covers, directly or through other tiles, as a bit set; computed
+	 * when first needed (See covers()). */
+	private volatile long[][] under;
+
+	/** Constructs a layout from the positions of its tiles.
+	 * @param file Name of the layout file.
+	 * @param width Width of the layout.
+	 * @param height Height of the layout.
+	 * @param depth Depth of the layout.
+	 * @param groups Number of groups of tiles.
+	 * @param x x-coordinates of the tiles, in level, row, column order.
+	 * @param y y-coordinates of the tiles.
+	 * @param z z-coordinates of the tiles.
+	 */
+	protected Layout(String file, int width, int height, int depth, int groups, int[] x, int[] y, int[] z) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.groups = groups;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+
+		int n = x.length;
+		this.cellSlot = new int[depth * height * width];
+		Arrays.fill(this.cellSlot, -1);
+		for (int s = 0; s < n; s++) {
+			this.cellSlot[this.cell(x[s], y[s], z[s])] = s;
+			this.cellSlot[this.cell(x[s] + 1, y[s], z[s])] = s;
+			this.cellSlot[this.cell(x[s], y[s] + 1, z[s])] = s;
+			this.cellSlot[this.cell(x[s] + 1, y[s] + 1, z[s])] = s;
+		}
+
+		this.left = new int[n][];
+		this.right = new int[n][];
+		this.above = new int[n][];
+		this.below = new int[n][];
+		int[] found = new int[4];
+		for (int s = 0; s < n; s++) {
+			this.left[s] = this.collect(found, new int[][] {{x[s] - 1, y[s]}, {x[s] - 1, y[s] + 1}}, z[s]);
+			this.right[s] = this.collect(found, new int[][] {{x[s] + 2, y[s]}, {x[s] + 2, y[s] + 1}}, z[s]);
+			int[][] block = {{x[s], y[s]}, {x[s] + 1, y[s]}, {x[s], y[s] + 1}, {x[s] + 1, y[s] + 1}};
+			this.above[s] = this.collect(found, block, z[s] + 1);
+			this.below[s] = this.collect(found, block, z[s] - 1);
+		}
+	}
+
+	/** Collects the distinct slots occupying a set of cells on one level.
+	 * @param found Scratch array large enough to hold the result.
+	 * @param cells (x, y) coordinates of the cells.
+	 * @param level z-coordinate of the cells.
+	 * @return The distinct slots found, in order of first occurrence.
+	 */
+	private int[] collect(int[] found, int[][] cells, int level) {
+		int k = 0;
+		for (int[] c : cells) {
+			int s = this.slotAt(c[0], c[1], level);
+			if (s >= 0) {
+				boolean seen = false;
+				for (int i = 0; i < k; i++) {
+					if (found[i] == s) seen = true;
+				}
+				if (!seen) found[k++] = s;
+			}
+		}
+		return (k == 0) ? NONE : Arrays.copyOf(found, k);
+	}
+
+	/** Index of a cell, in level, row, column order.
+	 * @param x1 x-coordinate.
+	 * @param y1 y-coordinate.
+	 * @param z1 z-coordinate.
+	 * @return Cell index.
+	 */
+	private int cell(int x1, int y1, int z1) {
+		return (z1 * this.height + y1) * this.width + x1;
+	}
+
+	/** Loads a layout, compiling the layout file only if it has not been compiled since it
+	 * was last modified. Compiled layouts are kept in a small cache, keyed by the path and
+	 * modification time of the file, so that dealing the same layout again skips reading the
+	 * file altogether.
+	 * @param layoutFile Name of the layout file.
+	 * @return The compiled layout.
+	 * @throws IOException
+	 */
+	public static Layout load(String layoutFile) throws IOException {
+		File f = new File(layoutFile);
+		if (!f.isFile()) {
+			throw new FileNotFoundException(layoutFile + " (No such file)");
+		}
+		String key = f.getCanonicalPath() + "@" + f.lastModified();
+
+		synchronized (CACHE) {
+			Layout l = CACHE.get(key);
+			if (l != null) {
+				return l;
+			}
+		}
+		Layout l = layoutFile.endsWith(BINARY_EXT) ? readBinary(layoutFile) : compile(layoutFile);
+		synchronized (CACHE) {
+			CACHE.put(key, l);
+		}
+		return l;
+	}
+
+	/** Compiles a layout file, assumed to be well-formed (See 'LayoutFileSpecifications.txt'),
+	 * in a single pass. The dimensions of the board are taken from the first layer: its
+	 * first row gives the width (Each non-space character representing a unit on the board
+	 * having width equal to 1/2 that of a single tile) and its number of rows the height. Each
+	 * line starting with a '%' character starts a new layer, and the rows of a layer are
+	 * turned into slots as soon as the layer is complete. The first of these lines may give
+	 * the number of groups, as in "%Groups 36".
+	 * @param layoutFile Name of the layout file.
+	 * @return The compiled layout.
+	 * @throws IOException
+	 */
+	public static Layout compile(String layoutFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(layoutFile));
+		Slots slots = new Slots();
+		ArrayList<String> rows = new ArrayList<String>();
+		int z = -1;
+
+		try {
+			String L = reader.readLine();
+			/* The information from the layout file is extracted line by line. */
+			while (L != null) {
+				if (!L.equals("")) {
+					/* If true, then the next higher layer is to be filled. */
+					if (L.charAt(0) == '%') {
+						if (z >= 0) {
+							slots.addLayer(rows, z);
+						} else {
+							slots.readGroups(L);
+						}
+						rows.clear();
+						z++;
+					} else if (z >= 0) {
+						rows.add(L);
+					}
+				}
+				L = reader.readLine();
+			}
+			if (z >= 0) {
+				slots.addLayer(rows, z);
+			}
+		} finally {
+			reader.close();
+		}
+
+		return slots.toLayout(layoutFile, z + 1);
+	}
+
+	/** Accumulates the slots of a layout file while it is read. */
+	private static class Slots {
+		/** Width of the board, or -1 until the first layer has been read. */
+		private int w = -1;
+		/** Height of the board, or -1 until the first layer has been read. */
+		private int h = -1;
+		/** Coordinates of the slots found so far. */
+		private int[] xs = new int[16];
+		private int[] ys = new int[16];
+		private int[] zs = new int[16];
+		/** Number of slots found so far. */
+		private int n = 0;
+		/** Number of groups of tiles. */
+		private int groups = Board.MAXGROUPS;
+
+		/** Reads the number of groups from the line starting the first layer, if it has the
+		 * form "%Groups n".
+		 * @param L Line starting the first layer.
+		 */
+		private void readGroups(String L) {
+			String[] tokens = L.substring(1).trim().split("[ ]+");
+			if ((tokens.length == 2) && tokens[0].equalsIgnoreCase("Groups")) {
+				try {
+					this.groups = Integer.parseInt(tokens[1]);
+				} catch (NumberFormatException e) {
+					/* Any other text is a comment, and the default number of groups is used. */
+				}
+			}
+		}
+
+		/** Turns the rows of a single layer into slots.
+		 * @param rows Non-empty lines of the layer, one per row.
+		 * @param z z-coordinate of the layer.
+		 */
+		private void addLayer(ArrayList<String> rows, int z) {
+			if (this.w < 0) {
+				this.w = 0;
+				String first = rows.isEmpty() ? "" : rows.get(0);
+				for (int i = 0; i < first.length(); i++) {
+					if (first.charAt(i) != ' ') this.w++;
+				}
+				this.h = rows.size();
+			}
+			/* Marks the cells of the layer already taken by a tile. */
+			boolean[][] filled = new boolean[this.h + 1][this.w + 1];
+
+			/* Loops over rows of for the given layer, ensuring it is filled with tiles row by
+			 * row. */
+			for (int y = 0; y < this.h; y++) {
+				String L = rows.get(y);
+				int x = 0;
+				int i = 0;
+				/* Loops through the tiles for a given row. */
+				while (x < this.w) {
+					/* Space characters merely serve as delimiters for the template file and
+					 * so are ignored. */
+					if (L.charAt(i) == ' ') {
+						i++;
+					} else if ((L.charAt(i) == '0') || filled[y][x]) {
+						/* '0' characters mark empty locations on the board and so are
+						 * ignored. Also, if the location is already filled, then it is
+						 * ignored. */
+						x++;
+						i++;
+					} else {
+						/* The given position is taken by a new slot if the character
+						 * encountered in the template file is not '0' and the corresponding
+						 * cell is empty. */
+						this.add(x, y, z);
+						filled[y][x] = true;
+						filled[y][x + 1] = true;
+						filled[y + 1][x] = true;
+						filled[y + 1][x + 1] = true;
+						x = x + 2;
+						/* Handles special case when the representation of a single tile in
+						 * the layout file straddles a grid cell boundary. */
+						if ((i < L.length() - 1) && (L.charAt(i + 1) == ' ')) {
+							i = i + 3;
+						} else {
+							i = i + 2;
+						}
+					}
+				}
+			}
+		}
+
+		private void add(int x, int y, int z) {
+			if (this.n == this.xs.length) {
+				this.xs = Arrays.copyOf(this.xs, 2 * this.n);
+				this.ys = Arrays.copyOf(this.ys, 2 * this.n);
+				this.zs = Arrays.copyOf(this.zs, 2 * this.n);
+			}
+			this.xs[this.n] = x;
+			this.ys[this.n] = y;
+			this.zs[this.n] = z;
+			this.n++;
+		}
+
+		/** Builds the layout from the slots found. (The file is read level by level and row
+		 * by row, so slots are numbered in level, row, column order, the order in which the
+		 * tiles of a board are scanned.)
+		 * @param file Name of the layout file.
+		 * @param depth Number of layers read.
+		 * @return The compiled layout.
+		 */
+		private Layout toLayout(String file, int depth) {
+			return new Layout(file, Math.max(this.w, 0), Math.max(this.h, 0), depth, this.groups,
+				Arrays.copyOf(this.xs, this.n), Arrays.copyOf(this.ys, this.n), Arrays.copyOf(this.zs, this.n));
+		}
+	}
+
+	/** Reads a layout file in the binary format, by mapping it into memory.
+	 * @param layoutFile Name of the binary layout file.
+	 * @return The layout.
+	 * @throws IOException If the file cannot be read or is not a valid binary layout file.
+	 */
+	public static Layout readBinary(String layoutFile) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(layoutFile, "r");
+		try {
+			FileChannel channel = f.getChannel();
+			long size = channel.size();
+			if (size < HEADERSIZE) {
+				throw new IOException(layoutFile + " is not a binary layout file.");
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION)) {
+				throw new IOException(layoutFile + " is not a binary layout file of version " + VERSION + ".");
+			}
+			int w = buf.getInt();
+			int h = buf.getInt();
+			int d = buf.getInt();
+			int g = buf.getInt();
+			int n = buf.getInt();
+			if ((w < 0) || (h < 0) || (d < 0) || (n < 0) || (size != HEADERSIZE + (long) n * SLOTSIZE)) {
+				throw new IOException(layoutFile + " is truncated or corrupt.");
+			}
+			if ((g < 1) || (g > Board.MAXGROUPS)) {
+				throw new IOException(layoutFile + ": " + g + " groups, instead of 1 to " + Board.MAXGROUPS + ".");
+			}
+
+			int[] xs = new int[n];
+			int[] ys = new int[n];
+			int[] zs = new int[n];
+			for (int s = 0; s < n; s++) {
+				xs[s] = buf.getShort() & 0xFFFF;
+				ys[s] = buf.getShort() & 0xFFFF;
+				zs[s] = buf.getShort() & 0xFFFF;
+				if ((xs[s] + 1 >= w) || (ys[s] + 1 >= h) || (zs[s] >= d)) {
+					throw new IOException(layoutFile + ": slot " + s + " lies outside the board.");
+				}
+				/* The covering slots are computed assuming the slots are numbered level by level
+				 * (See computeUnder()), and no two slots may be in the same place. */
+				if ((s > 0) && !isBefore(xs[s - 1], ys[s - 1], zs[s - 1], xs[s], ys[s], zs[s])) {
+					throw new IOException(layoutFile + ": slot " + s + " is not in level, row, column order.");
+				}
+			}
+			return new Layout(layoutFile, w, h, d, g, xs, ys, zs);
+		} finally {
+			f.close();
+		}
+	}
+
+	/** Checks whether a slot comes strictly before another in level, row, column order.
+	 * @param x1 x-coordinate of the first slot.
+	 * @param y1 y-coordinate of the first slot.
+	 * @param z1 z-coordinate of the first slot.
+	 * @param x2 x-coordinate of the second slot.
+	 * @param y2 y-coordinate of the second slot.
+	 * @param z2 z-coordinate of the second slot.
+	 * @return true if the first slot comes before the second.
+	 */
+	private static boolean isBefore(int x1, int y1, int z1, int x2, int y2, int z2) {
+		if (z1 != z2) return z1 < z2;
+		if (y1 != y2) return y1 < y2;
+		return x1 < x2;
+	}
+
+	/** Writes the layout to a file in the binary format.
+	 * @param binaryFile Name of the file to write.
+	 * @throws IOException
+	 */
+	public void writeBinary(String binaryFile) throws IOException {
+		int n = this.getSlotCount();
+		if (Math.max(this.width, Math.max(this.height, this.depth)) > 0xFFFF) {
+			throw new IOException("Layout is too large for the binary format.");
+		}
+		ByteBuffer buf = ByteBuffer.allocate(HEADERSIZE + n * SLOTSIZE);
+		buf.putInt(MAGIC).putInt(VERSION);
+		buf.putInt(this.width).putInt(this.height).putInt(this.depth).putInt(this.groups).putInt(n);
+		for (int s = 0; s < n; s++) {
+			buf.putShort((short) this.x[s]).putShort((short) this.y[s]).putShort((short) this.z[s]);
+		}
+		buf.flip();
+
+		RandomAccessFile f = new RandomAccessFile(binaryFile, "rw");
+		try {
+			f.setLength(0);
+			FileChannel channel = f.getChannel();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		} finally {
+			f.close();
+		}
+	}
+
+	/** Converts layout files from the text format to the binary format.
+	 * Usage: java mahjong.Layout file.layout [file.layoutbin]
+	 * (The output file name defaults to the input file name with the binary extension.)
+	 * @param args Input and, optionally, output file names.
+	 */
+	public static void main(String[] args) {
+		if ((args.length < 1) || (args.length > 2)) {
+			System.out.println("Usage: java mahjong.Layout file" + LayoutSelector.LAYOUT_EXT + " [file" + BINARY_EXT + "]");
+			System.exit(1);
+		}
+		String in = args[0];
+		String out;
+		if (args.length == 2) {
+			out = args[1];
+		} else if (in.endsWith(LayoutSelector.LAYOUT_EXT)) {
+			out = in.substring(0, in.length() - LayoutSelector.LAYOUT_EXT.length()) + BINARY_EXT;
+		} else {
+			out = in + BINARY_EXT;
+		}
+		try {
+			Layout l = compile(in);
+			l.writeBinary(out);
+			System.out.println("Wrote " + l.getSlotCount() + " slots to " + out + ".");
+		} catch (IOException e) {
+			System.err.println("Error converting " + in + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/** Looks up the slot occupying a cell.
+	 * @param x1 x-coordinate of the cell.
+	 * @param y1 y-coordinate of the cell.
+	 * @param z1 z-coordinate of the cell.
+	 * @return Slot occupying the cell, or -1 if the cell is empty or lies outside the layout.
+	 */
+	public int slotAt(int x1, int y1, int z1) {
+		if ((x1 < 0) || (x1 >= this.width) || (y1 < 0) || (y1 >= this.height) || (z1 < 0) || (z1 >= this.depth)) {
+			return -1;
+		}
+		return this.cellSlot[this.cell(x1, y1, z1)];
+	}
+
+	/** Looks up the slot of a tile from the coordinates recorded in it.
+	 * @param t Tile to look up.
+	 * @return Slot of the tile, or -1 if the tile's coordinates are not those of a slot.
+	 */
+	public int slotOf(Tile t) {
+		int s = this.slotAt(t.getX(), t.getY(), t.getZ());
+		if ((s < 0) || (this.x[s] != t.getX()) || (this.y[s] != t.getY()) || (this.z[s] != t.getZ())) {
+			return -1;
+		}
+		return s;
+	}
+
+	/** Getter.
+	 * @return Name of the layout file.
+	 */
+	public String getFile() {
+		return this.file;
+	}
+
+	/** Getter.
+	 * @return Layout width in units representing half the width of a single tile.
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/** Getter.
+	 * @return Layout height in units representing half the height of a single tile.
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/** Getter.
+	 * @return Layout depth in layers.
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/** Getter.
+	 * @return Number of groups of tiles the layout is meant to be dealt with.
+	 */
+	public int getGroupCount() {
+		return this.groups;
+	}
+
+	/** Getter.
+	 * @return Integer array containing the 3 dimensions of the layout.
+	 */
+	public int[] getDimensions() {
+		return new int[] {this.width, this.height, this.depth};
+	}
+
+	/** Getter.
+	 * @return Number of slots, i.e. tiles, in the layout.
+	 */
+	public int getSlotCount() {
+		return this.x.length;
+	}
+
+	/** Getter.
+	 * @param s Slot.
+	 * @return x-coordinate of the slot.
+	 */
+	public int getX(int s) {
+		return this.x[s];
+	}
+
+	/** Getter.
+	 * @param s Slot.
+	 * @return y-coordinate of the slot.
+	 */
+	public int getY(int s) {
+		return this.y[s];
+	}
+
+	/** Getter.
+	 * @param s Slot.
+	 * @return z-coordinate of the slot.
+	 */
+	public int getZ(int s) {
+		return this.z[s];
+	}
+
+	/** Getter. (The returned array is shared and must not be modified.)
+	 * @param s Slot.
+	 * @return Slots directly left of the slot.
+	 */
+	protected int[] getLeft(int s) {
+		return this.left[s];
+	}
+
+	/** Getter. (The returned array is shared and must not be modified.)
+	 * @param s Slot.
+	 * @return Slots directly right of the slot.
+	 */
+	protected int[] getRight(int s) {
+		return this.right[s];
+	}
+
+	/** Getter. (The returned array is shared and must not be modified.)
+	 * @param s Slot.
+	 * @return Slots covering the slot from the level above.
+	 */
+	protected int[] getAbove(int s) {
+		return this.above[s];
+	}
+
+	/** Getter. (The returned array is shared and must not be modified.)
+	 * @param s Slot.
+	 * @return Slots covered by the slot on the level below.
+	 */
+	protected int[] getBelow(int s) {
+		return this.below[s];
+	}
+
+	/** Checks whether a slot covers another, directly or through other slots, so that a tile
+	 * in the lower slot can only be removed after the tile in the upper one.
+	 * @param s Upper slot.
+	 * @param t Lower slot.
+	 * @return true if t is below s.
+	 */
+	protected boolean covers(int s, int t) {
+		long[][] u = this.under;
+		if (u == null) {
+			/* Computing the closure twice from two threads is harmless. */
+			u = this.computeUnder();
+			this.under = u;
+		}
+		return (u[s][t >> 6] & (1L << t)) != 0;
+	}
+
+	/** Computes the slots that each slot covers, directly or through other slots.
+	 * @return Covered slots of each slot, as a bit set.
+	 */
+	private long[][] computeUnder() {
+		int n = this.x.length;
+		long[][] u = new long[n][(n + 63) / 64];
+		for (int s = 0; s < n; s++) {
+			/* Slots are numbered level by level, so the slots below s are already done. */
+			for (int t : this.below[s]) {
+				u[s][t >> 6] |= 1L << t;
+				for (int w = 0; w < u[s].length; w++) {
+					u[s][w] |= u[t][w];
+				}
+			}
+		}
+		return u;
+	}
+
+}
@@ -21,15 +21,19 @@ public class LayoutSelector {
 		File layoutDir = new File(LAYOUTDIR);
 		File[] layoutFiles = layoutDir.listFiles(new FilenameFilter() {
 			public boolean accept(File dir, String filename) {
-				return filename.endsWith(LAYOUT_EXT);
+				return filename.endsWith(LAYOUT_EXT) || filename.endsWith(Layout.BINARY_EXT);
 			}
 		});
-		if (layoutFiles.length == 0) throw new IOException("Directory " + layoutDir + " does not contain any layout Files (i.e. Files with extension " + LAYOUT_EXT + ").");
+		if (layoutFiles.length == 0) throw new IOException("Directory " + layoutDir + " does not contain any layout Files (i.e. Files with extension " + LAYOUT_EXT + " or " + Layout.BINARY_EXT + ").");
 		
 		this.layouts = new HashMap<String, File>();
 		for (File f : layoutFiles) {
 			String t = getLayoutTitle((f.getAbsolutePath()).substring((layoutDir.getAbsolutePath() + File.separator).length()));
-			(this.layouts).put(t, f);
+			/* A layout in both formats is read from the text file, which the binary one is
+			 * converted from (See Layout.main()). */
+			if (!(this.layouts).containsKey(t) || (f.getName()).endsWith(LAYOUT_EXT)) {
+				(this.layouts).put(t, f);
+			}
 		}
 		
 		this.layoutSelected = false;
@@ -37,12 +41,23 @@ public class LayoutSelector {
 	}
 	
     protected static String getLayoutTitle (String l) {
-    	String titleLow = l.substring(0, l.length() - (LAYOUT_EXT).length());
+    	/* Layout files may also be in the binary format (See Layout.BINARY_EXT), so the
+    	 * title is everything up to the extension. */
+    	int ext = l.lastIndexOf('.');
+    	String titleLow = (ext > 0) ? l.substring(0, ext) : l;
     	String firstLetUpper = (titleLow.substring(0, 1)).toUpperCase();
     	String restOfTitle = titleLow.substring(1);
     	return firstLetUpper + restOfTitle;
     }
 	
+    /** Getter.
+     * @param title Title of a layout, as selected in the dialog (See showLayoutSelectorDialog()).
+     * @return Name of the layout file of that title, in either format.
+     */
+    protected String getLayoutFile (String title) {
+    	return LAYOUTDIR + File.separator + ((this.layouts).get(title)).getName();
+    }
+	
     public String showLayoutSelectorDialog () {   	
     	String s = null;
     	do {
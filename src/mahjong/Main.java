@@ -44,6 +44,10 @@ public class Main {
         	System.err.println(e.getMessage()); ///////
                 System.exit(1);
         }
+        // deal the next games in the background, from the same seed if there is one
+        DealPrefetcher prefetcher = new DealPrefetcher(DealPrefetcher.QUEUESIZE, seed);
+        prefetcher.prefetch(layoutFileInitial, strategyInitial, b.getDealMillis());
+        b.setPrefetcher(prefetcher);
         
         // construct the Player and the GUI
         JViewer v = null;
@@ -57,7 +61,7 @@ public class Main {
 
 	/** Displays default usage flags. */
     public static void help() {
-        System.out.println("Usage: java mahjong.Main [ -h | -seed n | -tiledir dir | -tileset tiles.set | -f board.layout | -s RANDOM ]*");
+        System.out.println("Usage: java mahjong.Main [ -h | -seed n | -tiledir dir | -tileset tiles.set | -f board.layout | -s strategy ]*");
         System.out.println("Where:");
         System.out.println("    -h                 This help");
         System.out.println("    -seed n            Specify random seed");
@@ -71,7 +75,7 @@ public class Main {
         System.out.println("    -f filename        Load the specified board layout");
         System.out.println("                        (currently=" + layoutFileInitial + ")");
         
-        System.out.println("    -s strategy        Use the specified tile assignment strategy (RANDOM or SOLVABLE)");
+        System.out.println("    -s strategy        Use the specified tile assignment strategy (RANDOM, SOLVABLE, PARALLEL or VERIFIED)");
         System.out.println("                        (currently=" + strategyInitial + ")");
     }
 
@@ -103,10 +107,12 @@ public class Main {
                 tileSetFile = args[i];
             } else if ("-s".equals(args[i])) {
                 i++;
-                if ("RANDOM".equals(args[i])) {
-                } else if ("SOLVABLE".equals(args[i])) {
-                	strategyInitial = Board.TileAssignment.SOLVABLE;
-                } else {
+                try {
+                	strategyInitial = Board.TileAssignment.valueOf(args[i]);
+                	if (strategyInitial == TileAssignment.VOID) {
+                		throw new IllegalArgumentException("Unsupported tile assignment strategy: " + strategyInitial);
+                	}
+                } catch (IllegalArgumentException iae) {
                 	System.out.println("Unrecognized tile assignment strategy: " + args[i]);
                     help();
                     System.exit(1);
@@ -95,4 +95,648 @@ public class Milestone1Test extends TestCase {
 			assertTrue(board.isEmpty());
 		}
 		
+		/* Checks that the free tile list kept up to date by remove() and undo() agrees with
+		 * one built from scratch, and that undoing every move restores the hash. */
+		public void testUndo() throws IOException {
+			Board board = new Board(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			MoveList moveList = new MoveList(board);
+			long hash = board.getHash();
+			
+			for (int i = 0; i < 10; i++) {
+				Tile t1 = board.getFreeTiles().get(0);
+				Tile t2 = board.getFreeTiles().get(1);
+				board.remove(t1);
+				board.remove(t2);
+				moveList.appendMove(t1, t2);
+			}
+			for (int i = 0; i < 10; i++) {
+				moveList.undo();
+				
+				java.util.ArrayList<Tile> freeTiles = new java.util.ArrayList<Tile>(board.getFreeTiles());
+				board.buildFreeTiles();
+				assertTrue(freeTiles.size() == board.getFreeTiles().size() &&
+						freeTiles.containsAll(board.getFreeTiles()));
+			}
+			assertTrue(board.getHash() == hash);
+		}
+		
+		/* Boards dealt from the same, unchanged layout file share one compiled layout. */
+		public void testLayoutCache() throws IOException {
+			Board board1 = new Board(TURTLELAYOUTFILE, Board.TileAssignment.RANDOM);
+			Board board2 = new Board(TURTLELAYOUTFILE, Board.TileAssignment.RANDOM);
+			assertTrue(board1.getLayout() == board2.getLayout());
+			
+			board1.reset();
+			assertTrue(board1.getLayout() == board2.getLayout());
+			assertTrue(board1.getLayout().getSlotCount() == (Board.MAXGROUPS)*(Board.GROUPSIZE));
+		}
+		
+		/* A layout converted to the binary format reads back identically. */
+		public void testBinaryLayout() throws IOException {
+			Layout text = Layout.compile(ZIGGURATLAYOUTFILE);
+			java.io.File f = java.io.File.createTempFile("ziggurat", Layout.BINARY_EXT);
+			f.deleteOnExit();
+			text.writeBinary(f.getPath());
+			Layout binary = Layout.readBinary(f.getPath());
+			
+			assertTrue(java.util.Arrays.equals(text.getDimensions(), binary.getDimensions()));
+			assertTrue(text.getGroupCount() == binary.getGroupCount());
+			assertTrue(text.getSlotCount() == binary.getSlotCount());
+			for (int s = 0; s < text.getSlotCount(); s++) {
+				assertTrue((text.getX(s) == binary.getX(s)) && (text.getY(s) == binary.getY(s)) &&
+						(text.getZ(s) == binary.getZ(s)));
+			}
+		}
+		
+		/* A solvable deal is solved, and playing the solution clears the board. */
+		public void testSolver() throws IOException {
+			Board board = new Board(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			Solver.Result result = Solver.solve(board);
+			assertTrue(result.getOutcome() == Solver.Outcome.WIN);
+			
+			int[] moves = result.getMoves();
+			for (int i = 0; i < moves.length; i += 2) {
+				Tile t1 = board.getTile(moves[i]);
+				Tile t2 = board.getTile(moves[i + 1]);
+				assertTrue(board.isRemovablePair(t1, t2));
+				board.remove(t1);
+				board.remove(t2);
+			}
+			assertTrue(board.isEmpty());
+		}
+		
+		public void testPlayer() throws IOException {
+			Board board = new Board(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			Player player = new Player(board, new Player.SolverPolicy(Solver.MAXNODES));
+			player.play();
+			int tiles = board.getLayout().getSlotCount();
+			assertTrue(player.isWon());
+			assertEquals(tiles / 2, player.getMoveCount());
+			
+			board = new Board(TURTLELAYOUTFILE, Board.TileAssignment.RANDOM);
+			player = new Player(board, new Player.RandomPolicy(new java.util.Random(1)));
+			player.play();
+			assertTrue(board.isEmpty() || (board.getMatchablePairCount() == 0));
+			assertEquals(tiles - 2 * player.getMoveCount(), board.getTileCount());
+		}
+		
+		public void testDeadlockDetector() throws IOException {
+			Board board = new Board(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			assertFalse(DeadlockDetector.isLost(board.getPosition()));
+			
+			/* Group 0 is left with a tile covering the other, while group 1 still has a pair
+			 * to remove. */
+			Layout layout = board.getLayout();
+			int n = layout.getSlotCount();
+			int upper = n - 1;
+			int lower = layout.getBelow(upper)[0];
+			int[] values = new int[n];
+			boolean[] present = new boolean[n];
+			values[upper] = 0;
+			values[lower] = 0;
+			present[upper] = true;
+			present[lower] = true;
+			values[0] = 1;
+			values[1] = 1;
+			present[0] = true;
+			present[1] = true;
+			Position position = new Position(layout, values, present);
+			assertTrue(position.getMatchablePairCount() > 0);
+			assertTrue(DeadlockDetector.isLost(position));
+		}
+
+		/* Hints are never waited for: an unknown hint is searched in the background, and the
+		 * hint after a move is ready when asked for. Only requested hints are counted as hits,
+		 * but the first lookup after each move, shown or asked for, is counted as ready. */
+		public void testHintPrecompute() throws IOException, InterruptedException {
+			Board board = new Board(new java.util.Random(1), TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			HintEngine engine = new HintEngine(board);
+			assertNull(engine.peekHint());
+			assertTrue(engine.awaitSearch(60000));
+			Tile[] hint = engine.peekHint();
+			assertNotNull(hint);
+			assertEquals(0, engine.getHits() + engine.getMisses());
+			
+			board.remove(hint[0]);
+			board.remove(hint[1]);
+			assertTrue(engine.awaitSearch(60000));
+			assertNotNull(engine.requestHint());
+			assertNotNull(engine.requestHint());
+			assertEquals(1, engine.getReadyCount());
+			assertEquals(0, engine.getLateCount());
+			assertEquals(2, engine.getHits());
+			
+			/* Half of a move is not a move. */
+			hint = engine.requestHint();
+			board.remove(hint[0]);
+			engine.peekHint();
+			assertEquals(1, engine.getReadyCount() + engine.getLateCount());
+			board.remove(hint[1]);
+			assertTrue(engine.awaitSearch(60000));
+			assertNotNull(engine.peekHint());
+			assertEquals(2, engine.getReadyCount());
+			assertEquals(0, engine.getLateCount());
+			assertEquals(3, engine.getHits());
+		}
+
+		/* A budget runs out at its deadline or when cancelled; a deal that gives up is dealt at
+		 * random, and says so. */
+		public void testDealBudget() throws IOException, InterruptedException {
+			DealBudget budget = new DealBudget(1);
+			Thread.sleep(5);
+			assertTrue(budget.isExhausted());
+			
+			Layout layout = Layout.load(TURTLELAYOUTFILE);
+			budget = new DealBudget(0);
+			int[] values = Board.deal(layout, TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE, new java.util.Random(1), budget);
+			assertFalse(budget.isExhausted());
+			assertFalse(budget.isFallback());
+			assertTrue(budget.getAttempts() > 0);
+			assertEquals(layout.getSlotCount(), values.length);
+			
+			budget = new DealBudget(0);
+			budget.cancel();
+			assertTrue(budget.isExhausted());
+			values = Board.deal(layout, TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE, new java.util.Random(1), budget);
+			assertTrue(budget.isFallback());
+			assertEquals(layout.getSlotCount(), values.length);
+			
+			budget = new DealBudget(0);
+			budget.cancel();
+			Board.deal(layout, TURTLELAYOUTFILE, Board.TileAssignment.RANDOM, new java.util.Random(1), budget);
+			assertFalse(budget.isFallback());
+		}
+
+		/* Prefetchers with the same seed hand over the same deals, with their attempts; a deal
+		 * not ready within the board's budget is kept for the next game. */
+		public void testDealPrefetcher() throws IOException {
+			DealPrefetcher prefetcher1 = new DealPrefetcher(2, 42L);
+			DealPrefetcher prefetcher2 = new DealPrefetcher(2, 42L);
+			for (int i = 0; i < 3; i++) {
+				DealBudget budget = new DealBudget(0);
+				int[] values = prefetcher1.take(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE, budget, 0);
+				assertTrue(java.util.Arrays.equals(values,
+						prefetcher2.take(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE, new DealBudget(0), 0)));
+				assertTrue(budget.getAttempts() > 0);
+			}
+			
+			/* A seeded prefetcher waits for its deal whatever the board's budget. */
+			int[] values = prefetcher1.take(TURTLELAYOUTFILE, Board.TileAssignment.VERIFIED, new DealBudget(1), 0);
+			assertTrue(java.util.Arrays.equals(values,
+					prefetcher2.take(TURTLELAYOUTFILE, Board.TileAssignment.VERIFIED, new DealBudget(0), 0)));
+			
+			/* A layout whose queue was dropped for other layouts carries on with its sequence. */
+			for (String l : new String[] { ZIGGURATLAYOUTFILE, TURTLELAYOUTFILE }) {
+				for (Board.TileAssignment s : new Board.TileAssignment[] { Board.TileAssignment.RANDOM, Board.TileAssignment.PARALLEL }) {
+					assertNotNull(prefetcher1.take(l, s, new DealBudget(0), 0));
+				}
+			}
+			values = prefetcher1.take(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE, new DealBudget(0), 0);
+			assertTrue(java.util.Arrays.equals(values,
+					prefetcher2.take(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE, new DealBudget(0), 0)));
+			
+			/* Without a seed, a deal not ready within the board's budget is kept for later. */
+			DealPrefetcher prefetcher3 = new DealPrefetcher(1, 0L);
+			DealBudget expired = new DealBudget(1);
+			while (!expired.isExhausted()) {
+				Thread.yield();
+			}
+			assertNull(prefetcher3.take(TURTLELAYOUTFILE, Board.TileAssignment.VERIFIED, expired, 0));
+			assertNotNull(prefetcher3.take(TURTLELAYOUTFILE, Board.TileAssignment.VERIFIED, new DealBudget(0), 0));
+			
+			Board board = new Board(TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			board.setPrefetcher(prefetcher1);
+			board.reset();
+			assertTrue(board.getDealAttempts() > 0);
+		}
+
+		/* A deal that failed is dropped rather than kept, so the queue recovers once the layout
+		 * can be read. */
+		public void testDealPrefetcherFailure() throws IOException {
+			java.io.File f = java.io.File.createTempFile("prefetch", LayoutSelector.LAYOUT_EXT);
+			f.delete();
+			f.deleteOnExit();
+			DealPrefetcher prefetcher = new DealPrefetcher(1, 7L);
+			try {
+				prefetcher.take(f.getPath(), Board.TileAssignment.SOLVABLE, new DealBudget(0), 0);
+				fail("A deal of a missing layout was taken.");
+			} catch (IOException e) {
+			}
+			java.nio.file.Files.copy(new java.io.File(TURTLELAYOUTFILE).toPath(), f.toPath());
+			
+			/* The deal started in place of the failed one may have run before the copy. */
+			int[] values = null;
+			try {
+				values = prefetcher.take(f.getPath(), Board.TileAssignment.SOLVABLE, new DealBudget(0), 0);
+			} catch (IOException e) {
+				values = prefetcher.take(f.getPath(), Board.TileAssignment.SOLVABLE, new DealBudget(0), 0);
+			}
+			assertNotNull(values);
+		}
+
+		/* Boards dealt from the same seed, and deals made again from a corpus seed, match. */
+		public void testSeededDeal() throws IOException {
+			Board board1 = new Board(new java.util.Random(1), TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			Board board2 = new Board(new java.util.Random(1), TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			assertEquals(board1.getPosition().getHash(), board2.getPosition().getHash());
+
+			Layout layout = board1.getLayout();
+			int[] values = DealCorpus.deal(layout, Board.TileAssignment.SOLVABLE, 42L);
+			assertNotNull(values);
+			assertTrue(java.util.Arrays.equals(values, DealCorpus.deal(layout, Board.TileAssignment.SOLVABLE, 42L)));
+		}
+
+		/* A lost position is only found under its hash with its own verification key, so two
+		 * positions whose hashes collide are told apart. */
+		public void testTranspositionCheck() throws IOException {
+			TranspositionTable[] tables = new TranspositionTable[] { new PositionTable(),
+					new ConcurrentPositionTable(1024),
+					new OffHeapPositionTable(1 << 16, OffHeapPositionTable.Policy.DEPTH_PREFERRED) };
+			long check = 0x123456789abcdefL << 4;
+			for (TranspositionTable t : tables) {
+				for (long h : new long[] { 0L, 42L }) {
+					t.add(h, check, 10);
+					assertTrue(t.contains(h, check));
+					assertFalse(t.contains(h, ~check));
+				}
+			}
+
+			Board board = new Board(new java.util.Random(1), TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			Position p = new Position(board.getPosition());
+			assertEquals(board.getPosition().getCanonicalCheck(), p.getCanonicalCheck());
+		}
+
+		/* The parallel solver reaches the same outcome as the sequential one, and its winning
+		 * lines clear the board. */
+		public void testParallelSolver() throws IOException {
+			java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+			try {
+				for (int i = 0; i < 10; i++) {
+					Board.TileAssignment s = (i % 2 == 0) ? Board.TileAssignment.SOLVABLE : Board.TileAssignment.RANDOM;
+					Board board = new Board(new java.util.Random(i), ZIGGURATLAYOUTFILE, s);
+					Solver.Result r1 = Solver.solve(board);
+					Solver.Result r2 = new ParallelSolver(board.getPosition()).solve(pool);
+					assertEquals(r1.getOutcome(), r2.getOutcome());
+					if (s == Board.TileAssignment.SOLVABLE) {
+						assertEquals(Solver.Outcome.WIN, r2.getOutcome());
+					}
+					if (r2.getOutcome() == Solver.Outcome.WIN) {
+						Position p = board.getPosition();
+						for (int slot : r2.getMoves()) {
+							assertTrue(p.remove(slot));
+						}
+						assertTrue(p.isEmpty());
+					}
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		/* An off-heap table large enough to drop nothing holds the same hashes as a table on
+		 * the heap, and a solver using it reaches the same outcomes. */
+		public void testOffHeapPositionTable() throws IOException {
+			OffHeapPositionTable offHeap = new OffHeapPositionTable(1 << 20, OffHeapPositionTable.Policy.DEPTH_PREFERRED);
+			PositionTable onHeap = new PositionTable();
+			java.util.Random r = new java.util.Random(7);
+			for (int i = 0; i < 1000; i++) {
+				long h = r.nextLong();
+				long check = r.nextLong();
+				offHeap.add(h, check, r.nextInt(144));
+				onHeap.add(h, check, 0);
+				assertTrue(offHeap.contains(h, check));
+				assertEquals(onHeap.contains(~h, check), offHeap.contains(~h, check));
+			}
+			assertEquals(0, offHeap.getCollisions());
+
+			for (int i = 0; i < 10; i++) {
+				Board.TileAssignment s = (i % 2 == 0) ? Board.TileAssignment.SOLVABLE : Board.TileAssignment.RANDOM;
+				Board board = new Board(new java.util.Random(i), ZIGGURATLAYOUTFILE, s);
+				offHeap.clear();
+				Solver.Result r1 = new Solver(board.getPosition(), Solver.MAXNODES, new PositionTable()).solve();
+				Solver.Result r2 = new Solver(board.getPosition(), Solver.MAXNODES, offHeap).solve();
+				assertEquals(r1.getOutcome(), r2.getOutcome());
+			}
+		}
+
+		/* The same deal with its groups relabelled has the same canonical hashes, as the
+		 * solver's table and the hint cache rely on, but a different Zobrist hash. */
+		public void testCanonicalRelabel() throws IOException {
+			Layout layout = Layout.load(TURTLELAYOUTFILE);
+			int[] values = DealGenerator.solvable(layout, Board.MAXGROUPS, new java.util.Random(3));
+			int[] relabelled = new int[values.length];
+			for (int s = 0; s < values.length; s++) {
+				relabelled[s] = (values[s] + 1) % Board.MAXGROUPS;
+			}
+			Position p = new Position(layout, values);
+			Position q = new Position(layout, relabelled);
+			assertEquals(p.getCanonicalHash(), q.getCanonicalHash());
+			assertEquals(p.getCanonicalCheck(), q.getCanonicalCheck());
+			assertTrue(p.getHash() != q.getHash());
+
+			/* Removing the same pair keeps them alike. */
+			int[] moves = new Solver(p, Solver.MAXNODES).moves();
+			p.remove(moves[0]);
+			p.remove(moves[1]);
+			q.remove(moves[0]);
+			q.remove(moves[1]);
+			assertEquals(p.getCanonicalHash(), q.getCanonicalHash());
+			assertTrue(p.getHash() != q.getHash());
+		}
+
+		/* Binary layout files with a bad number of groups, or slots out of level order, are
+		 * rejected. */
+		public void testBinaryLayoutValidation() throws IOException {
+			java.io.File f = java.io.File.createTempFile("ziggurat", Layout.BINARY_EXT);
+			f.deleteOnExit();
+			Layout.compile(ZIGGURATLAYOUTFILE).writeBinary(f.getPath());
+			byte[] good = java.nio.file.Files.readAllBytes(f.toPath());
+
+			/* The number of groups follows the magic number, version and dimensions. */
+			java.nio.ByteBuffer groups = java.nio.ByteBuffer.wrap(good.clone());
+			groups.putInt(5 * 4, 0);
+			java.nio.file.Files.write(f.toPath(), groups.array());
+			try {
+				Layout.readBinary(f.getPath());
+				fail("A binary layout with no groups was read.");
+			} catch (IOException e) {
+			}
+
+			/* The first two slots swapped. */
+			byte[] swapped = good.clone();
+			System.arraycopy(good, 7 * 4, swapped, 7 * 4 + 6, 6);
+			System.arraycopy(good, 7 * 4 + 6, swapped, 7 * 4, 6);
+			java.nio.file.Files.write(f.toPath(), swapped);
+			try {
+				Layout.readBinary(f.getPath());
+				fail("A binary layout with slots out of order was read.");
+			} catch (IOException e) {
+			}
+
+			java.nio.file.Files.write(f.toPath(), good);
+			assertEquals(Layout.compile(ZIGGURATLAYOUTFILE).getSlotCount(), Layout.readBinary(f.getPath()).getSlotCount());
+		}
+
+		/* The estimator plays its rollouts for the position on the board, reports a position
+		 * with no moves as lost, and forgets its tallies when cleared. */
+		public void testWinEstimator() throws IOException, InterruptedException {
+			Board board = new Board(new java.util.Random(4), ZIGGURATLAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			WinEstimator estimator = new WinEstimator(board, DifficultyRater.Rollout.GREEDY, 1.0);
+			DifficultyRater.Rating r = estimator.getEstimate();
+			for (int i = 0; (i < 600) && ((r == null) || (r.getRollouts() < WinEstimator.MAXROLLOUTS)); i++) {
+				Thread.sleep(50);
+				r = estimator.getEstimate();
+			}
+			assertEquals(WinEstimator.MAXROLLOUTS, r.getRollouts());
+			assertTrue((r.getWinProbability() > 0) && (r.getWinProbability() <= 1));
+
+			/* Once stopped, no rollout refills the tallies after they are cleared. */
+			estimator.stop();
+			Thread.sleep(100);
+			estimator.clear();
+			assertNull(estimator.getEstimate());
+
+			/* A game played to its end is either won or has no moves left. */
+			Board over = new Board(new java.util.Random(4), ZIGGURATLAYOUTFILE, Board.TileAssignment.RANDOM);
+			(new Player(over, new Player.GreedyPolicy())).play();
+			WinEstimator done = new WinEstimator(over, DifficultyRater.Rollout.GREEDY, 1.0);
+			done.stop();
+			assertEquals(over.isEmpty() ? 1.0 : 0.0, done.getEstimate().getWinProbability(), 0.0);
+		}
+
+		/* The removable tiles and the removable tiles matching a tile, read from the per-group
+		 * index of free tiles, agree with a check of every pair of free tiles, as tiles are
+		 * removed and put back. */
+		public void testGroupFreeIndex() throws IOException {
+			Board board = new Board(new java.util.Random(2), TURTLELAYOUTFILE, Board.TileAssignment.RANDOM);
+			java.util.Random r = new java.util.Random(2);
+			java.util.List<Tile> removed = new java.util.ArrayList<Tile>();
+			int initial = board.getRemovableTiles().size();
+			while (board.isSolvable()) {
+				java.util.List<Tile> free = board.getFreeTiles();
+				java.util.List<Tile> expected = new java.util.ArrayList<Tile>();
+				for (Tile t1 : free) {
+					for (Tile t2 : free) {
+						if (board.isRemovablePair(t1, t2) && !expected.contains(t1)) expected.add(t1);
+					}
+				}
+				java.util.List<Tile> removable = board.getRemovableTiles();
+				assertEquals(expected.size(), removable.size());
+				assertTrue(removable.containsAll(expected));
+
+				Tile t = removable.get(r.nextInt(removable.size()));
+				java.util.List<Tile> matching = board.getRemovableMatchingTiles(t);
+				for (Tile u : free) {
+					assertEquals(board.isRemovablePair(t, u), matching.contains(u));
+				}
+				Tile u = matching.get(r.nextInt(matching.size()));
+				assertTrue(board.remove(t) && board.remove(u));
+				removed.add(t);
+				removed.add(u);
+			}
+			assertTrue(board.getRemovableTiles().isEmpty());
+
+			for (int i = removed.size() - 1; i >= 0; i--) {
+				board.putBack(removed.get(i));
+			}
+			assertEquals(initial, board.getRemovableTiles().size());
+		}
+
+		/* The live tile and matchable pair counters agree with a scan of the board after every
+		 * move, and the game status read from them ends in a win or a deadlock. */
+		public void testLiveCounters() throws IOException {
+			Board board = new Board(new java.util.Random(3), ZIGGURATLAYOUTFILE, Board.TileAssignment.RANDOM);
+			GameStatus status = new GameStatus(board);
+			java.util.Random r = new java.util.Random(3);
+			while (true) {
+				java.util.Set<Tile> tiles = new java.util.HashSet<Tile>();
+				for (Tile[][] level : board.getContent()) {
+					for (Tile[] row : level) {
+						for (Tile t : row) {
+							if (t != null) tiles.add(t);
+						}
+					}
+				}
+				assertEquals(tiles.size(), board.getTileCount());
+				assertEquals(tiles.isEmpty(), board.isEmpty());
+
+				java.util.List<Tile> free = board.getFreeTiles();
+				java.util.List<Tile[]> pairs = new java.util.ArrayList<Tile[]>();
+				for (int j = 0; j < free.size(); j++) {
+					for (int k = j + 1; k < free.size(); k++) {
+						if (board.isRemovablePair(free.get(j), free.get(k))) pairs.add(new Tile[] { free.get(j), free.get(k) });
+					}
+				}
+				assertEquals(pairs.size(), board.getMatchablePairCount());
+
+				status.updateStatus();
+				if (pairs.isEmpty()) break;
+				Tile[] pair = pairs.get(r.nextInt(pairs.size()));
+				board.remove(pair[0]);
+				board.remove(pair[1]);
+			}
+			assertEquals(board.isEmpty() ? GameStatus.Status.WIN : GameStatus.Status.DEADLOCK, status.getStatus());
+		}
+
+		/* A removal order is found in a single attempt and can be played out pair by pair, and
+		 * the deals built from it use each group at most GROUPSIZE times and are winnable. */
+		public void testSolvableGenerator() throws IOException {
+			for (String l : new String[] { TURTLELAYOUTFILE, ZIGGURATLAYOUTFILE }) {
+				Layout layout = Layout.load(l);
+				int n = layout.getSlotCount();
+				for (int seed = 0; seed < 10; seed++) {
+					int[] order = DealGenerator.removalOrder(layout, new java.util.Random(seed));
+					assertNotNull(order);
+					assertEquals(n, order.length);
+					int[] pairOf = new int[n];
+					for (int k = 0; k < n; k++) {
+						pairOf[order[k]] = k / 2;
+					}
+					Position p = new Position(layout, pairOf);
+					for (int k = 0; k < n; k += 2) {
+						assertTrue(p.isPlayable(order[k]) && p.isPlayable(order[k + 1]));
+						assertTrue(p.remove(order[k]) && p.remove(order[k + 1]));
+					}
+					assertTrue(p.isEmpty());
+
+					DealBudget budget = new DealBudget(0);
+					int[] values = DealGenerator.solvable(layout, Board.MAXGROUPS, new java.util.Random(seed), budget);
+					assertEquals(1, budget.getAttempts());
+					int[] count = new int[Board.MAXGROUPS];
+					for (int v : values) {
+						assertTrue(++count[v] <= Board.GROUPSIZE);
+					}
+					assertEquals(Solver.Outcome.WIN, new Solver(new Position(layout, values), Solver.MAXNODES).solve().getOutcome());
+				}
+			}
+		}
+
+		/* Parallel attempts give the same deal for the same seed and parallelism, whichever
+		 * pool runs them, and that deal is winnable. */
+		public void testParallelDealReproducible() throws IOException {
+			Layout layout = Layout.load(TURTLELAYOUTFILE);
+			java.util.concurrent.ForkJoinPool pool1 = new java.util.concurrent.ForkJoinPool(3);
+			java.util.concurrent.ForkJoinPool pool2 = new java.util.concurrent.ForkJoinPool(3);
+			try {
+				for (long seed = 1; seed <= 5; seed++) {
+					int[] values = DealGenerator.parallelSolvable(layout, Board.MAXGROUPS, seed, pool1, new DealBudget(0));
+					assertNotNull(values);
+					assertTrue(java.util.Arrays.equals(values,
+							DealGenerator.parallelSolvable(layout, Board.MAXGROUPS, seed, pool1, new DealBudget(0))));
+					assertTrue(java.util.Arrays.equals(values,
+							DealGenerator.parallelSolvable(layout, Board.MAXGROUPS, seed, pool2, new DealBudget(0))));
+					assertEquals(Solver.Outcome.WIN, new Solver(new Position(layout, values), Solver.MAXNODES).solve().getOutcome());
+				}
+			} finally {
+				pool1.shutdown();
+				pool2.shutdown();
+			}
+
+			Board board1 = new Board(new java.util.Random(9), TURTLELAYOUTFILE, Board.TileAssignment.PARALLEL, 0);
+			Board board2 = new Board(new java.util.Random(9), TURTLELAYOUTFILE, Board.TileAssignment.PARALLEL, 0);
+			assertEquals(board1.getHash(), board2.getHash());
+		}
+
+		/* Once a position is solved, following the hints and undoing and redoing moves are
+		 * answered from the cache, and every hint is a move that keeps the game winnable. */
+		public void testHintCache() throws IOException, InterruptedException {
+			Board board = new Board(new java.util.Random(6), ZIGGURATLAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			HintEngine engine = new HintEngine(board);
+			assertNull(engine.requestHint());
+			assertTrue(engine.awaitSearch(60000));
+			assertEquals(1, engine.getMisses());
+
+			java.util.List<Tile> removed = new java.util.ArrayList<Tile>();
+			for (int i = 0; i < 5; i++) {
+				Tile[] hint = engine.requestHint();
+				assertNotNull(hint);
+				assertTrue(board.isRemovablePair(hint[0], hint[1]));
+				board.remove(hint[0]);
+				board.remove(hint[1]);
+				removed.add(hint[0]);
+				removed.add(hint[1]);
+				assertEquals(Solver.Outcome.WIN, Solver.solve(board).getOutcome());
+			}
+
+			/* Undoing the moves and redoing them. */
+			for (int i = removed.size() - 1; i >= 0; i--) {
+				board.putBack(removed.get(i));
+			}
+			for (int i = 0; i < removed.size(); i += 2) {
+				Tile[] hint = engine.requestHint();
+				assertNotNull(hint);
+				assertTrue(java.util.Arrays.asList(hint).contains(removed.get(i)));
+				board.remove(removed.get(i));
+				board.remove(removed.get(i + 1));
+			}
+			assertEquals(1, engine.getMisses());
+			assertEquals(10, engine.getHits());
+
+			/* A new deal from another layout starts from an empty cache. */
+			engine.clear();
+			assertNull(engine.requestHint());
+			assertEquals(2, engine.getMisses());
+		}
+
+		/* Ratings only depend on the seed and the parallelism of the pool, rollouts stop at the
+		 * budget or as soon as the interval is narrow enough, and the interval holds the
+		 * estimate. */
+		public void testDifficultyRater() throws IOException {
+			Board board = new Board(new java.util.Random(8), TURTLELAYOUTFILE, Board.TileAssignment.SOLVABLE);
+			java.util.concurrent.ForkJoinPool pool1 = new java.util.concurrent.ForkJoinPool(3);
+			java.util.concurrent.ForkJoinPool pool2 = new java.util.concurrent.ForkJoinPool(3);
+			try {
+				for (DifficultyRater.Rollout rollout : DifficultyRater.Rollout.values()) {
+					DifficultyRater rater = new DifficultyRater(board.getPosition(), rollout, 1000, 0);
+					DifficultyRater.Rating r1 = rater.rate(pool1, 42L);
+					DifficultyRater.Rating r2 = rater.rate(pool2, 42L);
+					assertEquals(1000, r1.getRollouts());
+					assertEquals(r1.getRollouts(), r2.getRollouts());
+					assertEquals(r1.getWinProbability(), r2.getWinProbability(), 0.0);
+					assertTrue((r1.getLow() <= r1.getWinProbability()) && (r1.getWinProbability() <= r1.getHigh()));
+
+					/* A wide interval is reached after the first round, of one batch per thread. */
+					DifficultyRater.Rating r3 = new DifficultyRater(board.getPosition(), rollout, 1000, 0.5).rate(pool1, 42L);
+					assertTrue(r3.getRollouts() < r1.getRollouts());
+				}
+			} finally {
+				pool1.shutdown();
+				pool2.shutdown();
+			}
+		}
+
+		/* Every deal verified is counted once, as accepted or as rejected, and a verified deal
+		 * is counted as accepted. */
+		public void testVerifyStats() throws IOException {
+			Layout layout = Layout.load(TURTLELAYOUTFILE);
+			DealGenerator.VerifyStats stats = DealGenerator.getVerifyStats();
+			long accepted = stats.getAccepted();
+			long rejected = stats.getRejected();
+
+			int[] values = DealGenerator.solvable(layout, Board.MAXGROUPS, new java.util.Random(5));
+			assertTrue(DealGenerator.isWinnable(layout, Board.MAXGROUPS, values, new DealBudget(0)));
+			assertEquals(accepted + 1, stats.getAccepted());
+			assertEquals(rejected, stats.getRejected());
+
+			/* Moving a tile to another group leaves two groups with an odd number of tiles. */
+			int[] odd = values.clone();
+			odd[0] = (odd[0] + 1) % Board.MAXGROUPS;
+			assertFalse(DealGenerator.isWinnable(layout, Board.MAXGROUPS, odd, new DealBudget(0)));
+			assertEquals(accepted + 1, stats.getAccepted());
+			assertEquals(rejected + 1, stats.getRejected());
+
+			DealBudget budget = new DealBudget(0);
+			java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+			try {
+				assertNotNull(DealGenerator.verified(layout, Board.MAXGROUPS, 5L, pool, budget));
+			} finally {
+				pool.shutdown();
+			}
+			long verified = (stats.getAccepted() - accepted - 1) + (stats.getRejected() - rejected - 1);
+			assertTrue(stats.getAccepted() >= accepted + 2);
+			assertEquals(budget.getAttempts(), verified);
+			double total = stats.getAccepted() + stats.getRejected();
+			assertEquals(stats.getRejected() / total, stats.getRejectionRate(), 1e-12);
+		}
+
 }
@@ -28,22 +28,12 @@ public class MoveList {
 			this.putBackTile(m.removedTile1);
 			this.putBackTile(m.removedTile2);
 			
-			(this.b).buildFreeTiles();
 			this.undoUsed = true;
 		}
 	}
 	
 	private void putBackTile (Tile t) {
-		int x = t.getX();
-		int y = t.getY();
-		int z = t.getZ();
-		
-		Tile[][][] c = (this.b).getContent();
-		
-		c[z][y][x] = t;
-		c[z][y][x + 1] = t;
-		c[z][y + 1][x] = t;
-		c[z][y + 1][x + 1] = t;
+		(this.b).putBack(t);
 	}
 	
 	public boolean canUndo () {
@@ -0,0 +1,191 @@
+package mahjong;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Transposition table kept outside the Java heap, in direct byte buffers of a fixed total
+ * size, for searches too large for the heap (See Solver, ParallelSolver). The garbage
+ * collector never sees its entries, so even tables of many gigabytes cause no pauses.
+ * Entries are grouped in buckets of one cache line each. A hash can only be stored in the
+ * bucket it maps to, and when that bucket is full an entry is replaced according to the
+ * table's policy. The table is safe to share between threads; each bucket is guarded by one
+ * of a fixed number of locks. An entry keeps the high half of the hash's verification key in
+ * its padding, so a lookup only matches an entry on 96 bits.
+ * The buffers count against the JVM's limit on direct memory, which defaults to the maximum
+ * heap size, so large tables need e.g. -XX:MaxDirectMemorySize=8g (See Simulate -offheap).
+ */
+public class OffHeapPositionTable implements TranspositionTable {
+	/** Replacement policies, used when a hash maps to a full bucket.
+	 * The DEPTH_PREFERRED policy replaces the entry with the fewest tiles left, but only with
+	 * an entry with as many tiles left or more, so the entries that save the most search are
+	 * kept.
+	 * The ALWAYS_REPLACE policy always replaces the entry with the fewest tiles left, so the
+	 * most recent entries are kept. */
+	public enum Policy { DEPTH_PREFERRED, ALWAYS_REPLACE };
+
+	/** Size of an entry in bytes: the hash, the number of tiles left and the high half of the
+	 * verification key. */
+	private static final int ENTRYSIZE = 16;
+	/** Number of entries in a bucket. */
+	private static final int BUCKETENTRIES = 4;
+	/** Size of a bucket in bytes. */
+	private static final int BUCKETSIZE = ENTRYSIZE * BUCKETENTRIES;
+	/** Base 2 logarithm of the number of buckets in a buffer (1 GB buffers). */
+	private static final int BUFFERSHIFT = 24;
+	/** Number of locks guarding the buckets; a power of two. */
+	private static final int LOCKS = 1024;
+
+	/** Buffers holding the buckets. */
+	private final ByteBuffer[] buffers;
+	/** Number of buckets minus one; the number of buckets is a power of two. */
+	private final long mask;
+	/** Replacement policy. */
+	private final Policy policy;
+	/** Locks guarding the buckets. */
+	private final Object[] locks;
+	/** Whether the hash 0, which marks empty entries, is in the table. */
+	private volatile boolean zero;
+	/** Verification key of the hash 0. */
+	private volatile long zeroCheck;
+
+	/** Number of lookups that found their hash. */
+	private final LongAdder hits = new LongAdder();
+	/** Number of lookups that did not find their hash. */
+	private final LongAdder misses = new LongAdder();
+	/** Number of hashes added to a full bucket, whether they replaced an entry or not. */
+	private final LongAdder collisions = new LongAdder();
+
+	/** Constructor.
+	 * @param bytes Memory budget of the table in bytes. The table uses the largest power of
+	 * two number of buckets that fits in it, and at least one bucket.
+	 * @param policy Replacement policy.
+	 * @throws OutOfMemoryError If the JVM's limit on direct memory is too low for the table.
+	 */
+	public OffHeapPositionTable(long bytes, Policy policy) {
+		long buckets = Long.highestOneBit(Math.max(bytes / BUCKETSIZE, 1));
+		this.mask = buckets - 1;
+		this.policy = policy;
+
+		/* A byte buffer holds at most 2 GB, so large tables are split over several. */
+		long perBuffer = Math.min(buckets, 1L << BUFFERSHIFT);
+		this.buffers = new ByteBuffer[(int) (buckets / perBuffer)];
+		for (int i = 0; i < this.buffers.length; i++) {
+			this.buffers[i] = ByteBuffer.allocateDirect((int) (perBuffer * BUCKETSIZE));
+		}
+
+		this.locks = new Object[LOCKS];
+		for (int i = 0; i < LOCKS; i++) {
+			this.locks[i] = new Object();
+		}
+	}
+
+	public boolean contains(long h, long check) {
+		boolean found;
+		if (h == 0) {
+			found = this.zero && (this.zeroCheck == check);
+		} else {
+			long bucket = h & this.mask;
+			ByteBuffer b = this.buffers[(int) (bucket >>> BUFFERSHIFT)];
+			int base = (int) (bucket & ((1L << BUFFERSHIFT) - 1)) * BUCKETSIZE;
+			found = false;
+			synchronized (this.locks[(int) bucket & (LOCKS - 1)]) {
+				for (int i = 0; i < BUCKETENTRIES; i++) {
+					int e = base + i * ENTRYSIZE;
+					if ((b.getLong(e) == h) && (b.getInt(e + 12) == (int) (check >>> 32))) {
+						found = true;
+						break;
+					}
+				}
+			}
+		}
+		(found ? this.hits : this.misses).increment();
+		return found;
+	}
+
+	public void add(long h, long check, int depth) {
+		if (h == 0) {
+			this.zeroCheck = check;
+			this.zero = true;
+			return;
+		}
+		long bucket = h & this.mask;
+		ByteBuffer b = this.buffers[(int) (bucket >>> BUFFERSHIFT)];
+		int base = (int) (bucket & ((1L << BUFFERSHIFT) - 1)) * BUCKETSIZE;
+
+		int c = (int) (check >>> 32);
+		synchronized (this.locks[(int) bucket & (LOCKS - 1)]) {
+			int victim = -1;
+			int victimDepth = Integer.MAX_VALUE;
+			for (int i = 0; i < BUCKETENTRIES; i++) {
+				int e = base + i * ENTRYSIZE;
+				long stored = b.getLong(e);
+				boolean same = (stored == h) && (b.getInt(e + 12) == c);
+				if (same || (stored == 0)) {
+					b.putLong(e, h);
+					b.putInt(e + 8, Math.max(depth, same ? b.getInt(e + 8) : 0));
+					b.putInt(e + 12, c);
+					return;
+				}
+				if (b.getInt(e + 8) < victimDepth) {
+					victim = e;
+					victimDepth = b.getInt(e + 8);
+				}
+			}
+
+			this.collisions.increment();
+			if ((this.policy == Policy.ALWAYS_REPLACE) || (depth >= victimDepth)) {
+				b.putLong(victim, h);
+				b.putInt(victim + 8, depth);
+				b.putInt(victim + 12, c);
+			}
+		}
+	}
+
+	/** Empties the table and resets its counters. (The table is assumed not to be in use by
+	 * a search.) */
+	public void clear() {
+		for (ByteBuffer b : this.buffers) {
+			for (int i = 0; i < b.capacity(); i += 8) {
+				b.putLong(i, 0);
+			}
+		}
+		this.zero = false;
+		this.hits.reset();
+		this.misses.reset();
+		this.collisions.reset();
+	}
+
+	/** Getter.
+	 * @return Number of entries the table can hold.
+	 */
+	public long getCapacity() {
+		return (this.mask + 1) * BUCKETENTRIES;
+	}
+
+	/** Getter.
+	 * @return Number of lookups that found their hash.
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/** Getter.
+	 * @return Number of lookups that did not find their hash.
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/** Getter.
+	 * @return Number of hashes added to a full bucket.
+	 */
+	public long getCollisions() {
+		return this.collisions.sum();
+	}
+
+	public String toString() {
+		return "hits=" + this.getHits() + " misses=" + this.getMisses() + " collisions="
+				+ this.getCollisions() + " capacity=" + this.getCapacity();
+	}
+
+}
@@ -0,0 +1,187 @@
+package mahjong;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Decides whether a position can still be cleared using every thread of a fork/join pool.
+ * The first few moves of the search are split into tasks, one for each pair that can be
+ * removed, and the positions they lead to are searched by separate solvers (See Solver).
+ * The solvers share one transposition table, so a position found lost by one of them is not
+ * searched again by the others, and all of them give up as soon as one of them wins.
+ */
+public class ParallelSolver {
+	/** Number of pairs removed before the search is handed over to sequential solvers. */
+	public static final int SPLITDEPTH = 2;
+	/** Default number of entries of the shared transposition table. */
+	public static final int TABLESIZE = 1 << 20;
+
+	/** Position to solve. */
+	private final Position p;
+	/** Maximum number of positions searched by all the solvers together. */
+	private final long maxNodes;
+	/** Hashes of the positions known to be lost, shared by all the solvers. */
+	private final TranspositionTable lost;
+	/** Number of positions searched by all the solvers. */
+	private final AtomicLong nodes;
+	/** Set as soon as a solver wins, or the budget runs out, or to cancel the search. */
+	private final AtomicBoolean stop;
+	/** Whether the stop flag was given by the caller, who may set it to cancel the search. */
+	private final boolean cancellable;
+
+	/** Constructs a solver for a position, searching at most Solver.MAXNODES positions.
+	 * @param p Position to solve (It is copied, not modified).
+	 */
+	public ParallelSolver(Position p) {
+		this(p, Solver.MAXNODES, new ConcurrentPositionTable(TABLESIZE));
+	}
+
+	/** Constructs a solver for a position.
+	 * @param p Position to solve (It is copied, not modified).
+	 * @param maxNodes Maximum number of positions searched by all the threads together.
+	 * @param lost Transposition table, which must be safe to share between threads.
+	 */
+	public ParallelSolver(Position p, long maxNodes, TranspositionTable lost) {
+		this(p, maxNodes, lost, new AtomicBoolean(), false);
+	}
+
+	/** Constructs a solver for a position that can be cancelled, e.g. when the position
+	 * searched is no longer needed. Once set, the stop flag is never cleared, so the solver is
+	 * meant to search once.
+	 * @param p Position to solve (It is copied, not modified).
+	 * @param maxNodes Maximum number of positions searched by all the threads together.
+	 * @param lost Transposition table, which must be safe to share between threads.
+	 * @param stop Set to cancel the search; it is also set by the solver when it wins.
+	 */
+	protected ParallelSolver(Position p, long maxNodes, TranspositionTable lost, AtomicBoolean stop) {
+		this(p, maxNodes, lost, stop, true);
+	}
+
+	/** Constructor.
+	 * @param p Position to solve.
+	 * @param maxNodes Maximum number of positions searched by all the threads together.
+	 * @param lost Transposition table.
+	 * @param stop Stop flag of the search.
+	 * @param cancellable Whether the stop flag was given by the caller.
+	 */
+	private ParallelSolver(Position p, long maxNodes, TranspositionTable lost, AtomicBoolean stop,
+			boolean cancellable) {
+		this.p = new Position(p);
+		this.maxNodes = maxNodes;
+		this.lost = lost;
+		this.nodes = new AtomicLong();
+		this.stop = stop;
+		this.cancellable = cancellable;
+	}
+
+	/** Solves the position of a board on the common fork/join pool.
+	 * @param b Board to solve (It is not modified).
+	 * @return Result of the search.
+	 */
+	public static Solver.Result solve(Board b) {
+		return new ParallelSolver(b.getPosition()).solve(ForkJoinPool.commonPool());
+	}
+
+	/** Searches the position.
+	 * @param pool Pool running the search.
+	 * @return Result of the search. If the outcome is a win, the result holds the pairs to
+	 * remove to clear the board.
+	 */
+	public Solver.Result solve(ForkJoinPool pool) {
+		this.nodes.set(0);
+		if (!this.cancellable) {
+			this.stop.set(false);
+		}
+		return pool.invoke(new Task(this.p, new int[0]));
+	}
+
+	/** Search of the position reached by removing some pairs. */
+	private class Task extends RecursiveTask<Solver.Result> {
+		private static final long serialVersionUID = 1L;
+
+		/** Position to search. */
+		private final Position q;
+		/** Slots of the pairs removed to reach the position, in order. */
+		private final int[] prefix;
+
+		/** Constructor.
+		 * @param q Position to search.
+		 * @param prefix Slots of the pairs removed to reach the position.
+		 */
+		Task(Position q, int[] prefix) {
+			this.q = q;
+			this.prefix = prefix;
+		}
+
+		protected Solver.Result compute() {
+			if (stop.get()) {
+				return new Solver.Result(Solver.Outcome.UNKNOWN, null, 0);
+			}
+			Solver s = new Solver(this.q, maxNodes, lost, nodes, stop);
+
+			if (this.prefix.length >= 2 * SPLITDEPTH) {
+				Solver.Result r = s.solve();
+				if (r.getOutcome() == Solver.Outcome.WIN) {
+					/* The other tasks are cancelled. */
+					stop.set(true);
+					return new Solver.Result(Solver.Outcome.WIN, this.concat(r.getMoves()),
+							r.getNodes());
+				}
+				return r;
+			}
+
+			if (this.q.isEmpty()) {
+				return new Solver.Result(Solver.Outcome.WIN, this.prefix, 0);
+			}
+			if ((this.q.getMatchablePairCount() == 0) || lost.contains(s.getHash(), s.getCheck())) {
+				return new Solver.Result(Solver.Outcome.LOSS, null, 0);
+			}
+
+			/* A task is forked for each pair that does not leave its group stuck. */
+			int[] moves = s.moves();
+			List<Task> tasks = new ArrayList<Task>();
+			for (int i = 0; i < moves.length; i += 2) {
+				s.play(moves[i], moves[i + 1]);
+				if (!s.isStuck(this.q.getValue(moves[i]))) {
+					tasks.add(new Task(new Position(s.getPosition()),
+							this.concat(new int[] { moves[i], moves[i + 1] })));
+				}
+				s.undo(moves[i], moves[i + 1]);
+			}
+			invokeAll(tasks);
+
+			/* The first winning task in move order is reported. */
+			Solver.Outcome outcome = Solver.Outcome.LOSS;
+			long n = 0;
+			for (Task t : tasks) {
+				Solver.Result r = t.join();
+				n += r.getNodes();
+				if (r.getOutcome() == Solver.Outcome.WIN) {
+					return new Solver.Result(Solver.Outcome.WIN, r.getMoves(), n);
+				}
+				if (r.getOutcome() == Solver.Outcome.UNKNOWN) {
+					outcome = Solver.Outcome.UNKNOWN;
+				}
+			}
+			if (outcome == Solver.Outcome.LOSS) {
+				lost.add(s.getHash(), s.getCheck(), this.q.getTileCount());
+			}
+			return new Solver.Result(outcome, null, n);
+		}
+
+		/** Appends moves to the ones removed to reach the position.
+		 * @param moves Slots of the pairs to append.
+		 * @return Slots of all the pairs, in order.
+		 */
+		private int[] concat(int[] moves) {
+			int[] all = new int[this.prefix.length + moves.length];
+			System.arraycopy(this.prefix, 0, all, 0, this.prefix.length);
+			System.arraycopy(moves, 0, all, this.prefix.length, moves.length);
+			return all;
+		}
+	}
+
+}
@@ -1,19 +1,266 @@
 package mahjong;
 
+import java.util.Random;
+
 /**
  * A class to represent the game player.  This class contains the main control
  * flow for receiving player actions and dispatching them into the game.
+ * The player plays a board on its own, without a display, choosing its moves with a policy
+ * (See Policy), and reports whether it cleared the board and how fast it played.
  */
 public class Player {
-	
+
+	/** Way of choosing the next pair of tiles to remove. */
+	public interface Policy {
+		/** Chooses the next move.
+		 * @param p Current position (It may be modified, as long as it is restored).
+		 * @return Slots of the pair of tiles to remove, or null to stop playing.
+		 */
+		public int[] choose(Position p);
+	}
+
+	/** Policy that removes a pair chosen uniformly at random among the pairs available. */
+	public static class RandomPolicy implements Policy {
+		/** Source of the choices. */
+		private final Random r;
+
+		/** Constructor.
+		 * @param r Source of the choices.
+		 */
+		public RandomPolicy(Random r) {
+			this.r = r;
+		}
+
+		public int[] choose(Position p) {
+			int[] pairs = Player.pairs(p);
+			if (pairs.length == 0) {
+				return null;
+			}
+			int i = 2 * (this.r).nextInt(pairs.length / 2);
+			return new int[] { pairs[i], pairs[i + 1] };
+		}
+	}
+
+	/** Policy that removes the pair that frees the most tiles, the first one found on ties.
+	 */
+	public static class GreedyPolicy implements Policy {
+		public int[] choose(Position p) {
+			int[] pairs = Player.pairs(p);
+			int best = -1;
+			int bestFreed = -1;
+			for (int i = 0; i < pairs.length; i += 2) {
+				int freed = Player.freed(p, pairs[i], pairs[i + 1]);
+				if (freed > bestFreed) {
+					best = i;
+					bestFreed = freed;
+				}
+			}
+			if (best < 0) {
+				return null;
+			}
+			return new int[] { pairs[best], pairs[best + 1] };
+		}
+	}
+
+	/** Policy that follows the winning line found by a solver (See Solver). The position is
+	 * solved again whenever it leaves the line, and when no winning line is found the
+	 * greedy policy is followed instead.
+	 */
+	public static class SolverPolicy implements Policy {
+		/** Maximum number of positions searched each time the position is solved. */
+		private final long maxNodes;
+		/** Transposition table kept between searches, or null for a new one each time. */
+		private final TranspositionTable lost;
+		/** Policy followed when no winning line is known. */
+		private final Policy fallback = new GreedyPolicy();
+		/** Slots of the pairs of the winning line, or null. */
+		private int[] line;
+		/** Index into the line of the next pair to remove. */
+		private int next;
+
+		/** Constructor.
+		 * @param maxNodes Maximum number of positions searched each time the position is
+		 * solved.
+		 */
+		public SolverPolicy(long maxNodes) {
+			this(maxNodes, null);
+		}
+
+		/** Constructs a policy whose searches all use the same transposition table, so a
+		 * position found lost in one game is not searched again in the next ones. The table
+		 * must only be used for one layout.
+		 * @param maxNodes Maximum number of positions searched each time the position is
+		 * solved.
+		 * @param lost Transposition table shared by the searches, or null for a new one each
+		 * time.
+		 */
+		public SolverPolicy(long maxNodes, TranspositionTable lost) {
+			this.maxNodes = maxNodes;
+			this.lost = lost;
+		}
+
+		public int[] choose(Position p) {
+			if (!this.isOnLine(p)) {
+				TranspositionTable t = (this.lost != null) ? this.lost : new PositionTable();
+				Solver.Result r = new Solver(p, this.maxNodes, t).solve();
+				this.line = (r.getOutcome() == Solver.Outcome.WIN) ? r.getMoves() : null;
+				this.next = 0;
+			}
+			if (this.line == null) {
+				return (this.fallback).choose(p);
+			}
+			int[] pair = new int[] { this.line[this.next], this.line[this.next + 1] };
+			this.next += 2;
+			return pair;
+		}
+
+		/** Checks whether the next pair of the winning line can be removed from a position.
+		 * @param p Position.
+		 * @return true if the line can still be followed.
+		 */
+		private boolean isOnLine(Position p) {
+			if ((this.line == null) || (this.next >= this.line.length)) {
+				return false;
+			}
+			int s1 = this.line[this.next];
+			int s2 = this.line[this.next + 1];
+			return p.isPlayable(s1) && p.isPlayable(s2) && (p.getValue(s1) == p.getValue(s2));
+		}
+	}
+
+	/** The viewer showing the board, or null when playing without a display. */
+	private final Viewer v;
+	/** The board played. */
+	private final Board b;
+	/** Policy choosing the moves. */
+	private final Policy policy;
+
+	/** Number of pairs removed by the last game played. */
+	private int moves;
+	/** Duration of the last game played, in nanoseconds. */
+	private long elapsed;
+
 	/**
-	 * Generic constructor.
+	 * Generic constructor. The player follows the greedy policy.
 	 * @param v1 The viewer.
 	 * @param b1 The board.
 	 */
-	public Player(Viewer v1, Board b1) {}
+	public Player(Viewer v1, Board b1) {
+		this(v1, b1, new GreedyPolicy());
+	}
+
+	/**
+	 * Constructor for a player without a display.
+	 * @param b1 The board.
+	 * @param policy1 The policy choosing the moves.
+	 */
+	public Player(Board b1, Policy policy1) {
+		this(null, b1, policy1);
+	}
+
+	/**
+	 * Constructor.
+	 * @param v1 The viewer, or null.
+	 * @param b1 The board.
+	 * @param policy1 The policy choosing the moves.
+	 */
+	public Player(Viewer v1, Board b1, Policy policy1) {
+		this.v = v1;
+		this.b = b1;
+		this.policy = policy1;
+	}
+
+	/** Main player control flow. Removes pairs from the board, as chosen by the policy,
+	 * until the board is cleared, no pair is left to remove or the policy stops. */
+	public void play() {
+		long start = System.nanoTime();
+		this.moves = 0;
+
+		Position p = (this.b).getPosition();
+		while (!p.isEmpty() && (p.getMatchablePairCount() > 0)) {
+			int[] pair = (this.policy).choose(p);
+			if ((pair == null) || !(this.b).isRemovablePair((this.b).getTile(pair[0]),
+					(this.b).getTile(pair[1]))) {
+				break;
+			}
+			(this.b).remove((this.b).getTile(pair[0]));
+			(this.b).remove((this.b).getTile(pair[1]));
+			p.remove(pair[0]);
+			p.remove(pair[1]);
+			this.moves++;
+			if (this.v != null) (this.v).repaint();
+		}
+
+		this.elapsed = System.nanoTime() - start;
+	}
+
+	/** Lists the pairs of tiles that can be removed from a position.
+	 * @param p Position.
+	 * @return Slots of the pairs, two by two.
+	 */
+	protected static int[] pairs(Position p) {
+		int[] pairs = new int[2 * p.getMatchablePairCount()];
+		int n = 0;
+		for (int v = 0; v < p.getGroupCount(); v++) {
+			int k = p.getGroupFreeCount(v);
+			for (int i = 0; i < k; i++) {
+				for (int j = i + 1; j < k; j++) {
+					pairs[n++] = p.getGroupFree(v, i);
+					pairs[n++] = p.getGroupFree(v, j);
+				}
+			}
+		}
+		return pairs;
+	}
+
+	/** Counts the tiles that removing a pair would free.
+	 * @param p Position (It is restored before returning).
+	 * @param s1 Slot of the first tile of the pair.
+	 * @param s2 Slot of the second tile of the pair.
+	 * @return Number of tiles freed.
+	 */
+	protected static int freed(Position p, int s1, int s2) {
+		int before = p.getFreeCount();
+		p.remove(s1);
+		p.remove(s2);
+		/* The pair itself no longer counts among the free tiles. */
+		int freed = p.getFreeCount() - before + 2;
+		p.restore(s2);
+		p.restore(s1);
+		return freed;
+	}
+
+	/** Getter.
+	 * @return true if the last game played cleared the board.
+	 */
+	public boolean isWon() {
+		return (this.b).isEmpty();
+	}
+
+	/** Getter.
+	 * @return Number of pairs removed by the last game played.
+	 */
+	public int getMoveCount() {
+		return this.moves;
+	}
+
+	/** Getter.
+	 * @return Duration of the last game played, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return this.elapsed;
+	}
+
+	/** Getter.
+	 * @return Number of pairs removed per second by the last game played.
+	 */
+	public double getMovesPerSecond() {
+		return (this.elapsed == 0) ? 0 : this.moves * 1e9 / this.elapsed;
+	}
 
-	/** Main player control flow. */
-	public void play() {}
+	public String toString() {
+		return (this.isWon() ? "win" : "loss") + " moves=" + this.moves
+				+ " moves/sec=" + Math.round(this.getMovesPerSecond());
+	}
 
 }
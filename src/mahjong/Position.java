@@ -0,0 +1,479 @@
+package mahjong;
+
+/** The state of play on a board of a given layout: which of the layout's slots still hold a
+ * tile, and the group value of the tile dealt to each slot.
+ * The cells of the layout taken up by tiles are kept in a bitboard (See BitBoard), so that
+ * whether a slot is covered or blocked on either side takes a few masks on the rows around
+ * it, and the free tiles of a new position are found a whole row at a time. The set of free
+ * tiles is then kept up to date incrementally: removing or putting back a tile only checks
+ * the slots adjacent to it in the layout again. Free tiles are also indexed by group value,
+ * together with the number of pairs of free matching tiles, so that whether a move is
+ * available can be answered in constant time.
+ * Positions also keep a 64-bit Zobrist hash of the tiles on the board, updated in constant
+ * time with each tile removed or put back, which identifies them cheaply. Since tiles of a
+ * group are interchangeable and groups can be relabelled without changing the game, they
+ * keep a second, canonical hash that only depends on which slots hold tiles of the same
+ * group (See getCanonicalHash()).
+ * Positions are cheap to copy, which makes them suitable for searching ahead of the board.
+ */
+public class Position {
+	/** Geometry of the board. */
+	private final Layout layout;
+	/** Group value of the tile dealt to each slot. */
+	private final int[] values;
+
+	/** Whether each slot still holds a tile. */
+	private final boolean[] present;
+	/** Cells taken up by the tiles on the board. */
+	private final BitBoard occupied;
+	/** Offset in the bitboard of the first row of each slot (See BitBoard.row()). */
+	private final int[] rows;
+	/** x-coordinate of each slot, i.e. its first column in the bitboard. */
+	private final int[] columns;
+
+	/** Slots holding a free tile. Only the first freeCount entries are in use. */
+	private final int[] free;
+	/** Position of each slot in the free array, or -1 if it does not hold a free tile. */
+	private final int[] freeIndex;
+	/** Number of free tiles. */
+	private int freeCount;
+
+	/** Free tiles by group value. Only the first groupFreeCount[v] entries of the row for group
+	 * value v are in use. Tiles with a negative group value (See TileAssignment.VOID) are not
+	 * indexed. */
+	private final int[][] groupFree;
+	/** Number of free tiles for each group value. */
+	private final int[] groupFreeCount;
+
+	/** Number of distinct pairs of free matching tiles. */
+	private int matchablePairs;
+	/** Number of tiles on the board. */
+	private int tileCount;
+
+	/** Zobrist key of the tile dealt to each slot (See key()). */
+	private final long[] keys;
+	/** Zobrist hash of the tiles on the board, i.e. the exclusive or of their keys. */
+	private long hash;
+
+	/** Key of each slot regardless of the tile dealt to it (See slotKey()). */
+	private final long[] slotKeys;
+	/** Exclusive or of the slot keys of the tiles on the board, for each group value. */
+	private final long[] groupHash;
+	/** Sum of the mixed group hashes, which does not depend on the labels of the groups. */
+	private long canonicalHash;
+	/** Second key of each slot, independent of the first (See slotCheck()). */
+	private final long[] slotChecks;
+	/** Exclusive or of the second slot keys of the tiles on the board, for each group value. */
+	private final long[] groupCheck;
+	/** Sum of the mixed second group hashes, a canonical hash independent of the first. */
+	private long canonicalCheck;
+
+	/** Constructs the initial position of a deal, with a tile in every slot of the layout.
+	 * @param layout Geometry of the board.
+	 * @param values Group value of the tile dealt to each slot.
+	 */
+	public Position(Layout layout, int[] values) {
+		this(layout, values, null);
+	}
+
+	/** Constructs a position with tiles in some of the slots of the layout.
+	 * @param layout Geometry of the board.
+	 * @param values Group value of the tile dealt to each slot.
+	 * @param present Whether each slot holds a tile, or null if all of them do.
+	 */
+	public Position(Layout layout, int[] values, boolean[] present) {
+		int n = layout.getSlotCount();
+		this.layout = layout;
+		this.values = values.clone();
+		this.present = new boolean[n];
+		this.occupied = new BitBoard(layout.getWidth(), layout.getHeight(), layout.getDepth());
+		this.rows = new int[n];
+		this.columns = new int[n];
+		this.free = new int[n];
+		this.freeIndex = new int[n];
+		this.keys = new long[n];
+		this.slotKeys = new long[n];
+		this.slotChecks = new long[n];
+
+		/* Each group's row is as large as the number of tiles dealt to it. */
+		int groups = 0;
+		for (int v : values) {
+			if (v >= groups) groups = v + 1;
+		}
+		int[] groupSize = new int[groups];
+		for (int v : values) {
+			if (v >= 0) groupSize[v]++;
+		}
+		this.groupFree = new int[groups][];
+		for (int v = 0; v < groups; v++) {
+			this.groupFree[v] = new int[groupSize[v]];
+		}
+		this.groupFreeCount = new int[groups];
+		this.groupHash = new long[groups];
+		this.groupCheck = new long[groups];
+
+		BitBoard anchors = new BitBoard(layout.getWidth(), layout.getHeight(), layout.getDepth());
+		for (int s = 0; s < n; s++) {
+			this.present[s] = (present == null) || present[s];
+			this.rows[s] = (this.occupied).row(layout.getY(s), layout.getZ(s));
+			this.columns[s] = layout.getX(s);
+			this.freeIndex[s] = -1;
+			this.keys[s] = key(s, values[s]);
+			this.slotKeys[s] = slotKey(s);
+			this.slotChecks[s] = slotCheck(s);
+			if (this.present[s]) {
+				(this.occupied).setTile(this.rows[s], this.columns[s]);
+				anchors.setCell(this.rows[s], this.columns[s]);
+				this.tileCount++;
+				this.hash ^= this.keys[s];
+				this.toggleCanonical(s);
+			}
+		}
+
+		/* The free tiles are listed in slot order, i.e. level, row and column order. */
+		BitBoard freeMask = new BitBoard(layout.getWidth(), layout.getHeight(), layout.getDepth());
+		(this.occupied).freeMask(anchors, freeMask);
+		for (int z1 = 0; z1 < layout.getDepth(); z1++) {
+			for (int y1 = 0; y1 < layout.getHeight(); y1++) {
+				for (int x1 = freeMask.nextSetBit(0, y1, z1); x1 >= 0; x1 = freeMask.nextSetBit(x1 + 1, y1, z1)) {
+					this.list(layout.slotAt(x1, y1, z1));
+				}
+			}
+		}
+	}
+
+	/** Copy constructor.
+	 * @param p Position to copy.
+	 */
+	public Position(Position p) {
+		this.layout = p.layout;
+		this.values = p.values;
+		this.present = p.present.clone();
+		this.occupied = new BitBoard(p.occupied);
+		this.rows = p.rows;
+		this.columns = p.columns;
+		this.free = p.free.clone();
+		this.freeIndex = p.freeIndex.clone();
+		this.freeCount = p.freeCount;
+		this.groupFree = new int[p.groupFree.length][];
+		for (int v = 0; v < this.groupFree.length; v++) {
+			this.groupFree[v] = p.groupFree[v].clone();
+		}
+		this.groupFreeCount = p.groupFreeCount.clone();
+		this.matchablePairs = p.matchablePairs;
+		this.tileCount = p.tileCount;
+		this.keys = p.keys;
+		this.hash = p.hash;
+		this.slotKeys = p.slotKeys;
+		this.groupHash = p.groupHash.clone();
+		this.canonicalHash = p.canonicalHash;
+		this.slotChecks = p.slotChecks;
+		this.groupCheck = p.groupCheck.clone();
+		this.canonicalCheck = p.canonicalCheck;
+	}
+
+	/** Computes the Zobrist key of a tile with a given group value in a given slot. Keys are
+	 * derived from the slot and group value alone (By the SplitMix64 finaliser), so they are
+	 * the same for every position, board and run.
+	 * @param s Slot.
+	 * @param v Group value.
+	 * @return Key of the tile.
+	 */
+	protected static long key(int s, int v) {
+		return mix(((long) s << 32) + v + 0x9e3779b97f4a7c15L);
+	}
+
+	/** Computes the key of a slot, used by the canonical hash.
+	 * @param s Slot.
+	 * @return Key of the slot.
+	 */
+	protected static long slotKey(int s) {
+		return mix((s + 1) * 0x9e3779b97f4a7c15L);
+	}
+
+	/** Computes the second key of a slot, used by the second canonical hash. The keys are
+	 * drawn from another sequence than slotKey(), so the two canonical hashes of a position
+	 * are independent.
+	 * @param s Slot.
+	 * @return Second key of the slot.
+	 */
+	protected static long slotCheck(int s) {
+		return mix((s + 1) * 0xc2b2ae3d27d4eb4fL + 0x165667b19e3779f9L);
+	}
+
+	/** SplitMix64 finaliser, a bijection on longs that maps 0 to 0.
+	 * @param z Value to mix.
+	 * @return Mixed value.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Brings the canonical hashes up to date after a tile was removed from or put back in a
+	 * slot. The hash of the tile's group is taken out of the sum, updated and added back in;
+	 * tiles with a negative group value count as groups of their own.
+	 * @param s Slot of the tile.
+	 */
+	private void toggleCanonical(int s) {
+		int v = this.values[s];
+		if (v < 0) {
+			long m = mix(this.slotKeys[s]);
+			long c = mix(this.slotChecks[s]);
+			this.canonicalHash += this.present[s] ? m : -m;
+			this.canonicalCheck += this.present[s] ? c : -c;
+			return;
+		}
+		this.canonicalHash -= mix(this.groupHash[v]);
+		this.groupHash[v] ^= this.slotKeys[s];
+		this.canonicalHash += mix(this.groupHash[v]);
+		this.canonicalCheck -= mix(this.groupCheck[v]);
+		this.groupCheck[v] ^= this.slotChecks[s];
+		this.canonicalCheck += mix(this.groupCheck[v]);
+	}
+
+	/** Checks whether a slot, whether it holds a tile or not, is uncovered and has no
+	 * neighbour on at least one side.
+	 * @param s Slot to check.
+	 * @return true if a tile in the slot could be removed.
+	 */
+	public boolean isFree(int s) {
+		return (this.occupied).isFree(this.rows[s], this.columns[s]);
+	}
+
+	/** Checks whether a slot is covered, completely or partially, by a tile on the level
+	 * above.
+	 * @param s Slot to check.
+	 * @return true if a tile on the board covers the slot.
+	 */
+	public boolean isCovered(int s) {
+		return (this.occupied).isCovered(this.rows[s], this.columns[s]);
+	}
+
+	/** Checks whether a slot holds a free tile.
+	 * @param s Slot to check.
+	 * @return true if the slot holds a tile that can be removed.
+	 */
+	public boolean isPlayable(int s) {
+		return this.freeIndex[s] >= 0;
+	}
+
+	/** Checks whether a slot holds a free tile that has a free matching tile.
+	 * @param s Slot to check.
+	 * @return true if the tile in the slot can be removed as part of some pair.
+	 */
+	public boolean isRemovable(int s) {
+		int v = this.values[s];
+		return (this.freeIndex[s] >= 0) && (v >= 0) && (this.groupFreeCount[v] >= 2);
+	}
+
+	/** Removes the tile in a slot, which must hold a free tile.
+	 * @param s Slot of the tile.
+	 * @return false if the slot did not hold a free tile, true if the tile was removed.
+	 */
+	public boolean remove(int s) {
+		if (this.freeIndex[s] < 0) {
+			return false;
+		}
+		this.present[s] = false;
+		(this.occupied).clearTile(this.rows[s], this.columns[s]);
+		this.tileCount--;
+		this.hash ^= this.keys[s];
+		this.toggleCanonical(s);
+		this.unlist(s);
+		this.refreshAround(s);
+		return true;
+	}
+
+	/** Puts the tile dealt to a slot back on the board. (The slot is assumed to be empty.)
+	 * @param s Slot of the tile.
+	 */
+	public void restore(int s) {
+		this.present[s] = true;
+		(this.occupied).setTile(this.rows[s], this.columns[s]);
+		this.tileCount++;
+		this.hash ^= this.keys[s];
+		this.toggleCanonical(s);
+		this.refreshAround(s);
+		this.refresh(s);
+	}
+
+	/** Brings the free tile index up to date for the slots that a tile may block, i.e. its
+	 * neighbours on either side and the slots it covers.
+	 * @param s Slot of the tile.
+	 */
+	private void refreshAround(int s) {
+		for (int t : this.layout.getLeft(s)) {
+			this.refresh(t);
+		}
+		for (int t : this.layout.getRight(s)) {
+			this.refresh(t);
+		}
+		for (int t : this.layout.getBelow(s)) {
+			this.refresh(t);
+		}
+	}
+
+	/** Brings the free tile index up to date for a single slot.
+	 * @param s Slot to update.
+	 */
+	private void refresh(int s) {
+		boolean f = this.present[s] && this.isFree(s);
+		if (f && (this.freeIndex[s] < 0)) {
+			this.list(s);
+		} else if (!f && (this.freeIndex[s] >= 0)) {
+			this.unlist(s);
+		}
+	}
+
+	/** Adds a slot to the free tile index.
+	 * @param s Slot to add.
+	 */
+	private void list(int s) {
+		this.freeIndex[s] = this.freeCount;
+		this.free[this.freeCount++] = s;
+
+		int v = this.values[s];
+		if (v >= 0) {
+			/* The new tile pairs up with each free tile already in its group. */
+			this.matchablePairs += this.groupFreeCount[v];
+			this.groupFree[v][this.groupFreeCount[v]++] = s;
+		}
+	}
+
+	/** Deletes a slot from the free tile index in constant time, by moving the last entry
+	 * into its place.
+	 * @param s Slot to delete.
+	 */
+	private void unlist(int s) {
+		int i = this.freeIndex[s];
+		int last = this.free[--this.freeCount];
+		this.free[i] = last;
+		this.freeIndex[last] = i;
+		this.freeIndex[s] = -1;
+
+		int v = this.values[s];
+		if (v >= 0) {
+			int[] g = this.groupFree[v];
+			int n = --this.groupFreeCount[v];
+			for (int j = 0; j < n; j++) {
+				if (g[j] == s) {
+					g[j] = g[n];
+					break;
+				}
+			}
+			this.matchablePairs -= n;
+		}
+	}
+
+	/** Getter.
+	 * @return Geometry of the board.
+	 */
+	public Layout getLayout() {
+		return this.layout;
+	}
+
+	/** Getter.
+	 * @param s Slot.
+	 * @return Group value of the tile dealt to the slot.
+	 */
+	public int getValue(int s) {
+		return this.values[s];
+	}
+
+	/** Getter.
+	 * @param s Slot.
+	 * @return true if the slot holds a tile.
+	 */
+	public boolean isPresent(int s) {
+		return this.present[s];
+	}
+
+	/** Getter.
+	 * @return Number of free tiles.
+	 */
+	public int getFreeCount() {
+		return this.freeCount;
+	}
+
+	/** Getter.
+	 * @param i Index into the free tiles, less than getFreeCount().
+	 * @return Slot of a free tile.
+	 */
+	public int getFree(int i) {
+		return this.free[i];
+	}
+
+	/** Getter.
+	 * @return Number of group values that can occur in this position.
+	 */
+	public int getGroupCount() {
+		return this.groupFreeCount.length;
+	}
+
+	/** Getter.
+	 * @param v Group value.
+	 * @return Number of free tiles with the group value.
+	 */
+	public int getGroupFreeCount(int v) {
+		return ((v >= 0) && (v < this.groupFreeCount.length)) ? this.groupFreeCount[v] : 0;
+	}
+
+	/** Getter.
+	 * @param v Group value.
+	 * @param i Index into the free tiles of the group, less than getGroupFreeCount(v).
+	 * @return Slot of a free tile with the group value.
+	 */
+	public int getGroupFree(int v, int i) {
+		return this.groupFree[v][i];
+	}
+
+	/** Getter.
+	 * @return Number of distinct pairs of free matching tiles, i.e. of moves available.
+	 */
+	public int getMatchablePairCount() {
+		return this.matchablePairs;
+	}
+
+	/** Getter.
+	 * @return Number of tiles on the board.
+	 */
+	public int getTileCount() {
+		return this.tileCount;
+	}
+
+	/** Getter.
+	 * @return Zobrist hash of the tiles on the board. Positions of the same layout with the
+	 * same tiles on the board have the same hash.
+	 */
+	public long getHash() {
+		return this.hash;
+	}
+
+	/** Getter.
+	 * @return Canonical hash of the tiles on the board, which ignores subindices and group
+	 * labels: positions of the same layout that differ only by the labels of their groups,
+	 * i.e. with the same slots holding tiles of a same group, have the same canonical hash.
+	 */
+	public long getCanonicalHash() {
+		return this.canonicalHash;
+	}
+
+	/** Getter.
+	 * @return Second canonical hash of the tiles on the board, computed like the first from
+	 * independent keys. Transposition tables keep it to verify their entries, so that two
+	 * positions are only mistaken for each other if both their canonical hashes collide.
+	 */
+	public long getCanonicalCheck() {
+		return this.canonicalCheck;
+	}
+
+	/** Checks if the board is empty.
+	 * @return true if no tiles are left.
+	 */
+	public boolean isEmpty() {
+		return this.tileCount == 0;
+	}
+
+}
@@ -0,0 +1,84 @@
+package mahjong;
+
+/** Transposition table for a single thread, kept in an open-addressed table of primitive
+ * longs so that large searches do not fill the heap with boxed keys. Each hash is stored with
+ * its verification key, and two entries with the same hash but different keys are both kept.
+ */
+public class PositionTable implements TranspositionTable {
+	/** Initial capacity; always a power of two. */
+	private static final int INITIALSIZE = 1 << 12;
+
+	/** Hashes in the table, where 0 marks an empty entry. */
+	private long[] entries = new long[INITIALSIZE];
+	/** Verification key of each entry. */
+	private long[] checks = new long[INITIALSIZE];
+	/** Number of hashes in the table, not counting the hash 0. */
+	private int size;
+	/** Whether the hash 0, which cannot be stored in the entries, is in the table. */
+	private boolean zero;
+	/** Verification key of the hash 0. */
+	private long zeroCheck;
+
+	/** Checks whether a hash is in the table.
+	 * @param h Hash to look up.
+	 * @param check Verification key of the hash.
+	 * @return true if the hash was added with the same key.
+	 */
+	public boolean contains(long h, long check) {
+		if (h == 0) return this.zero && (this.zeroCheck == check);
+		int mask = this.entries.length - 1;
+		for (int i = this.index(h); this.entries[i] != 0; i = (i + 1) & mask) {
+			if ((this.entries[i] == h) && (this.checks[i] == check)) return true;
+		}
+		return false;
+	}
+
+	/** Adds a hash to the table. The table grows as needed, so no hash is ever dropped.
+	 * @param h Hash to add.
+	 * @param check Verification key of the hash.
+	 * @param depth Not used.
+	 */
+	public void add(long h, long check, int depth) {
+		if (h == 0) {
+			this.zero = true;
+			this.zeroCheck = check;
+			return;
+		}
+		if (2 * (this.size + 1) > this.entries.length) {
+			long[] old = this.entries;
+			long[] oldChecks = this.checks;
+			this.entries = new long[2 * old.length];
+			this.checks = new long[2 * old.length];
+			this.size = 0;
+			for (int i = 0; i < old.length; i++) {
+				if (old[i] != 0) this.insert(old[i], oldChecks[i]);
+			}
+		}
+		this.insert(h, check);
+	}
+
+	/** Adds a non-zero hash to the table, which must have room for it.
+	 * @param h Hash to add.
+	 * @param check Verification key of the hash.
+	 */
+	private void insert(long h, long check) {
+		int mask = this.entries.length - 1;
+		int i = this.index(h);
+		while (this.entries[i] != 0) {
+			if ((this.entries[i] == h) && (this.checks[i] == check)) return;
+			i = (i + 1) & mask;
+		}
+		this.entries[i] = h;
+		this.checks[i] = check;
+		this.size++;
+	}
+
+	/** Computes the entry where the search for a hash starts.
+	 * @param h Hash.
+	 * @return Index into the entries.
+	 */
+	private int index(long h) {
+		return (int) (h ^ (h >>> 32)) & (this.entries.length - 1);
+	}
+
+}
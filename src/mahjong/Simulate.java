@@ -0,0 +1,285 @@
+package mahjong;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mahjong.Board.TileAssignment;
+
+/** Entry point playing many games without a display, to compare tile assignment strategies
+ * and bot policies (See Player). Every layout in the layout directory, or a single one, is
+ * dealt and played a number of times, split between worker threads. Each worker plays on
+ * its own board with its own policy, so the workers share no mutable state. Contains only
+ * static methods.
+ * Deals are made without a time budget, so that a strategy is not silently replaced by
+ * random deals (See Board.wasFallback()); deals that fall back anyway, when the strategy
+ * finds no deal, are counted and reported.
+ * With the -offheap option, the SOLVER policies of all the workers share one transposition
+ * table kept off the heap (See OffHeapPositionTable), emptied before each layout. The JVM
+ * must then allow that much direct memory, e.g. with -XX:MaxDirectMemorySize=4g for a table
+ * of 4096 MB.
+ */
+public class Simulate {
+	/** Default number of games played on each layout. */
+	private static final int GAMES_DEFAULT = 1000;
+
+	/** Number of games played on each layout. */
+	private static int games = GAMES_DEFAULT;
+	/** Tile assignment strategy of the deals. */
+	private static Board.TileAssignment strategy = TileAssignment.RANDOM;
+	/** Name of the bot policy (RANDOM, GREEDY or SOLVER). */
+	private static String policy = "GREEDY";
+	/** Number of worker threads. */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	/** Random seed, for repeatability, or 0. */
+	private static long seed;
+	/** Name of the single layout file to play, or null for all of them. */
+	private static String layoutFile;
+	/** Size in megabytes of the off-heap transposition table of the SOLVER policy, or 0 to
+	 * use a table on the heap for each search. */
+	private static long offHeapMegabytes;
+	/** Off-heap transposition table shared by the workers, or null. */
+	private static OffHeapPositionTable table;
+
+	/** Results of some games. */
+	private static class Tally {
+		/** Number of games played. */
+		int games;
+		/** Number of games won. */
+		int wins;
+		/** Number of pairs removed in all the games. */
+		long moves;
+		/** Number of pairs removed in the games lost. */
+		long lossMoves;
+		/** Number of games dealt at random instead of by the strategy. */
+		int fallbacks;
+
+		/** Adds the results of other games.
+		 * @param t Results to add.
+		 */
+		void add(Tally t) {
+			this.games += t.games;
+			this.wins += t.wins;
+			this.moves += t.moves;
+			this.lossMoves += t.lossMoves;
+			this.fallbacks += t.fallbacks;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		parse(args);
+
+		String[] layoutFiles;
+		if (layoutFile != null) {
+			layoutFiles = new String[] { layoutFile };
+		} else {
+			File[] files = new File(LayoutSelector.LAYOUTDIR).listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String filename) {
+					return filename.endsWith(LayoutSelector.LAYOUT_EXT);
+				}
+			});
+			if ((files == null) || (files.length == 0)) {
+				System.err.println("Directory " + LayoutSelector.LAYOUTDIR + " does not contain any layout files.");
+				System.exit(1);
+			}
+			layoutFiles = new String[files.length];
+			for (int i = 0; i < files.length; i++) {
+				layoutFiles[i] = LayoutSelector.LAYOUTDIR + File.separator + files[i].getName();
+			}
+			Arrays.sort(layoutFiles);
+		}
+
+		System.out.println("strategy=" + strategy + " policy=" + policy + " games=" + games + " threads=" + threads);
+		if ((offHeapMegabytes > 0) && "SOLVER".equals(policy)) {
+			try {
+				table = new OffHeapPositionTable(offHeapMegabytes << 20, OffHeapPositionTable.Policy.DEPTH_PREFERRED);
+			} catch (OutOfMemoryError e) {
+				System.err.println("Cannot allocate an off-heap table of " + offHeapMegabytes
+						+ " MB; raise -XX:MaxDirectMemorySize.");
+				System.exit(1);
+			}
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (String l : layoutFiles) {
+				simulate(pool, l);
+			}
+			if (strategy == TileAssignment.VERIFIED) {
+				System.out.println("verified deals: " + DealGenerator.getVerifyStats());
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Plays the games on a layout and prints their results.
+	 * @param pool Pool running the workers.
+	 * @param l Layout file name.
+	 * @throws IOException
+	 */
+	private static void simulate(ExecutorService pool, final String l) throws IOException {
+		/* The layout is compiled once, before the workers load it from the cache. */
+		Layout.load(l);
+		/* Positions of different layouts may share hashes. */
+		if (table != null) {
+			table.clear();
+		}
+
+		long start = System.nanoTime();
+		List<Future<Tally>> workers = new ArrayList<Future<Tally>>();
+		for (int w = 0; w < threads; w++) {
+			final int n = games / threads + ((w < games % threads) ? 1 : 0);
+			final long workerSeed = (seed == 0L) ? (new Random()).nextLong() : seed + w;
+			if (n == 0) continue;
+			workers.add(pool.submit(new Callable<Tally>() {
+				public Tally call() throws IOException {
+					return play(l, n, workerSeed);
+				}
+			}));
+		}
+
+		Tally total = new Tally();
+		for (Future<Tally> f : workers) {
+			try {
+				total.add(f.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				throw new IOException(l + ": " + e.getCause().getMessage(), e.getCause());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		int losses = total.games - total.wins;
+		System.out.println(LayoutSelector.getLayoutTitle(new File(l).getName())
+				+ ": games=" + total.games
+				+ String.format(" win rate=%.2f%%", 100.0 * total.wins / total.games)
+				+ String.format(" mean moves to deadlock=%.1f", (losses == 0) ? 0.0 : (double) total.lossMoves / losses)
+				+ String.format(" deals/sec=%.1f", total.games / seconds)
+				+ String.format(" moves/sec=%.0f", total.moves / seconds)
+				+ " random fallbacks=" + total.fallbacks
+				+ ((table != null) ? " table: " + table : ""));
+	}
+
+	/** Plays games on a layout, on a board of its own.
+	 * @param l Layout file name.
+	 * @param n Number of games.
+	 * @param workerSeed Seed of the deals and of the policy.
+	 * @return Results of the games.
+	 * @throws IOException
+	 */
+	private static Tally play(String l, int n, long workerSeed) throws IOException {
+		Random r = new Random(workerSeed);
+		Board b = new Board(r, l, strategy, 0);
+		Player player = new Player(b, newPolicy(r));
+		Tally t = new Tally();
+		for (int i = 0; i < n; i++) {
+			if (i > 0) b.reset();
+			if (b.wasFallback()) t.fallbacks++;
+			player.play();
+			t.games++;
+			t.moves += player.getMoveCount();
+			if (player.isWon()) {
+				t.wins++;
+			} else {
+				t.lossMoves += player.getMoveCount();
+			}
+		}
+		return t;
+	}
+
+	/** Creates the policy named on the command line.
+	 * @param r Source of the policy's random choices.
+	 * @return A new policy.
+	 */
+	private static Player.Policy newPolicy(Random r) {
+		if ("RANDOM".equals(policy)) {
+			return new Player.RandomPolicy(new Random(r.nextLong()));
+		} else if ("SOLVER".equals(policy)) {
+			return new Player.SolverPolicy(Solver.MAXNODES, table);
+		} else {
+			return new Player.GreedyPolicy();
+		}
+	}
+
+	/** Displays default usage flags. */
+	public static void help() {
+		System.out.println("Usage: java mahjong.Simulate [ -h | -n games | -s strategy | -p policy | -t threads | -seed n | -f board.layout | -offheap MB ]*");
+		System.out.println("Where:");
+		System.out.println("    -h                 This help");
+		System.out.println("    -n games           Number of games played on each layout");
+		System.out.println("                        (currently=" + games + ")");
+		System.out.println("    -s strategy        Use the specified tile assignment strategy (RANDOM, SOLVABLE, PARALLEL or VERIFIED)");
+		System.out.println("                        (currently=" + strategy + ")");
+		System.out.println("    -p policy          Use the specified bot policy (RANDOM, GREEDY or SOLVER)");
+		System.out.println("                        (currently=" + policy + ")");
+		System.out.println("    -t threads         Number of worker threads");
+		System.out.println("                        (currently=" + threads + ")");
+		System.out.println("    -seed n            Specify random seed");
+		System.out.println("    -f filename        Only play the specified board layout, instead of every one in " + LayoutSelector.LAYOUTDIR);
+		System.out.println("    -offheap MB        Share an off-heap transposition table of the specified size between the SOLVER");
+		System.out.println("                        policies; run the JVM with -XX:MaxDirectMemorySize of at least that size");
+		System.out.println("                        (currently=" + offHeapMegabytes + ", 0 for a table on the heap for each search)");
+	}
+
+	/** Method to parse argument array and set appropriate values.
+	 * @param args The argument array given to main.
+	 */
+	private static void parse(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if ("-h".equals(args[i])) {
+					help();
+					System.exit(0);
+				} else if ("-n".equals(args[i])) {
+					games = Integer.parseInt(args[++i]);
+				} else if ("-s".equals(args[i])) {
+					strategy = Board.TileAssignment.valueOf(args[++i]);
+					if (strategy == Board.TileAssignment.VOID) {
+						throw new IllegalArgumentException("Unsupported tile assignment strategy: " + strategy);
+					}
+				} else if ("-p".equals(args[i])) {
+					policy = args[++i];
+					if (!"RANDOM".equals(policy) && !"GREEDY".equals(policy) && !"SOLVER".equals(policy)) {
+						throw new IllegalArgumentException("Unrecognized bot policy: " + policy);
+					}
+				} else if ("-t".equals(args[i])) {
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if ("-seed".equals(args[i])) {
+					seed = Long.parseLong(args[++i]);
+				} else if ("-f".equals(args[i])) {
+					layoutFile = LayoutSelector.LAYOUTDIR + File.separator + args[++i];
+				} else if ("-offheap".equals(args[i])) {
+					offHeapMegabytes = Math.max(0, Long.parseLong(args[++i]));
+				} else {
+					throw new IllegalArgumentException("Unrecognized option: " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException iae) {
+			System.out.println(iae.getMessage());
+			help();
+			System.exit(1);
+		} catch (ArrayIndexOutOfBoundsException aioobe) {
+			System.out.println("Missing value for option: " + args[args.length - 1]);
+			help();
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,420 @@
+package mahjong;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Decides whether a position can still be cleared, by depth-first search over the pairs of
+ * free matching tiles that can be removed.
+ * Positions already shown to be lost are remembered by their canonical hash (See Position) in
+ * a transposition table, so each of them is only searched once however many orders of moves
+ * lead to it, and a table shared between searches also serves positions that only differ by
+ * the labels of their groups.
+ * Pairs that remove every tile left in their group can never hurt and are played without
+ * trying the alternatives; other pairs are tried highest and most blocking tiles first, and
+ * pairs leaving their group with tiles that cover each other are not tried at all.
+ * The time a search takes to find a win varies wildly with its first choices, so the search
+ * is restarted with short budgets and shuffled move orders rather than run once.
+ */
+public class Solver {
+	/** Outcome of a search. UNKNOWN means the search was given up before it was decided. */
+	public enum Outcome { WIN, LOSS, UNKNOWN };
+
+	/** Default maximum number of positions searched. */
+	public static final long MAXNODES = 1000000;
+	/** Number of positions searched by the first run of the search, and unit of the budgets
+	 * of the later runs (See luby()). */
+	private static final long FIRSTRUN = 1000;
+	/** Number of positions searched between checks for cancellation; a power of two. */
+	private static final int CHECKINTERVAL = 1024;
+	/** Range of the noise added to the ordering scores after the first run. */
+	private static final int NOISE = 256;
+	/** Seed of the noise added to the ordering scores, so searches are repeatable. */
+	private static final long NOISESEED = 0x6d61686a6f6e67L;
+
+	/** The result of a search. */
+	public static class Result {
+		/** Outcome of the search. */
+		private final Outcome outcome;
+		/** Slots of a winning sequence of pairs, or null if no win was found. */
+		private final int[] moves;
+		/** Number of positions searched. */
+		private final long nodes;
+
+		/** Constructor.
+		 * @param outcome Outcome of the search.
+		 * @param moves Slots of a winning sequence of pairs, or null.
+		 * @param nodes Number of positions searched.
+		 */
+		protected Result(Outcome outcome, int[] moves, long nodes) {
+			this.outcome = outcome;
+			this.moves = moves;
+			this.nodes = nodes;
+		}
+
+		/** Getter.
+		 * @return Outcome of the search.
+		 */
+		public Outcome getOutcome() {
+			return this.outcome;
+		}
+
+		/** Getter.
+		 * @return Slots of a winning sequence of pairs, where the slots at indices 2k and
+		 * 2k + 1 are removed together, or null if the outcome is not a win.
+		 */
+		public int[] getMoves() {
+			return this.moves;
+		}
+
+		/** Getter.
+		 * @return Number of positions searched.
+		 */
+		public long getNodes() {
+			return this.nodes;
+		}
+
+		public String toString() {
+			return this.outcome + " (" + this.nodes + " positions)";
+		}
+	}
+
+	/** Position being searched. Moves are played on it and taken back in place. */
+	private final Position p;
+	/** Maximum number of positions searched. */
+	private final long maxNodes;
+	/** Number of tiles of each group value left on the board. */
+	private final int[] remaining;
+	/** Hashes of the positions known to be lost. */
+	private final TranspositionTable lost;
+	/** Number of positions searched by all the solvers sharing the table, or null if the
+	 * table is not shared. */
+	private final AtomicLong sharedNodes;
+	/** Set when the solvers sharing the table should give up, or null if it is not shared. */
+	private final AtomicBoolean stop;
+	/** Ordering score of each slot. */
+	private final int[] score;
+	/** Slots dealt each group value. */
+	private final int[][] groupSlots;
+	/** Slots of the tiles left in a group, used by isStuck(). */
+	private final int[] left = new int[Board.GROUPSIZE];
+
+	/** Slots removed so far, in order. Only the first depth entries are in use. */
+	private final int[] path;
+	/** Number of slots removed so far. */
+	private int depth;
+	/** Number of positions searched. */
+	private long nodes;
+	/** Number of positions after which the current run of the search is given up. */
+	private long limit;
+	/** Whether the current run of the search was given up. */
+	private boolean aborted;
+	/** Source of the noise added to the ordering scores, or null on the first run. */
+	private Random noise;
+	/** Whether the search was given up for good, because another solver sharing the table
+	 * won, the shared budget ran out or the deadline passed. */
+	private boolean cancelled;
+	/** Value of System.nanoTime() after which the search is given up, or 0 for none. */
+	private long deadline;
+
+	/** Constructs a solver for a position, searching at most MAXNODES positions.
+	 * @param p Position to solve (It is copied, not modified).
+	 */
+	public Solver(Position p) {
+		this(p, MAXNODES);
+	}
+
+	/** Constructs a solver for a position.
+	 * @param p Position to solve (It is copied, not modified).
+	 * @param maxNodes Maximum number of positions searched before the search is given up.
+	 */
+	public Solver(Position p, long maxNodes) {
+		this(p, maxNodes, new PositionTable(), null, null);
+	}
+
+	/** Constructs a solver for a position with a given transposition table, e.g. one kept off
+	 * the heap for large searches (See OffHeapPositionTable).
+	 * @param p Position to solve (It is copied, not modified).
+	 * @param maxNodes Maximum number of positions searched before the search is given up.
+	 * @param lost Hashes of the positions known to be lost.
+	 */
+	public Solver(Position p, long maxNodes, TranspositionTable lost) {
+		this(p, maxNodes, lost, null, null);
+	}
+
+	/** Constructs a solver for a position that shares its transposition table, budget and
+	 * cancellation with other solvers (See ParallelSolver).
+	 * @param p Position to solve (It is copied, not modified).
+	 * @param maxNodes Maximum number of positions searched by all the solvers together.
+	 * @param lost Hashes of the positions known to be lost.
+	 * @param sharedNodes Number of positions searched by all the solvers, or null if the
+	 * budget is not shared.
+	 * @param stop Set when the solvers should give up, or null.
+	 */
+	protected Solver(Position p, long maxNodes, TranspositionTable lost, AtomicLong sharedNodes,
+			AtomicBoolean stop) {
+		this.p = new Position(p);
+		this.maxNodes = maxNodes;
+		this.lost = lost;
+		this.sharedNodes = sharedNodes;
+		this.stop = stop;
+
+		Layout layout = p.getLayout();
+		int n = layout.getSlotCount();
+		this.score = new int[n];
+		this.remaining = new int[p.getGroupCount()];
+		this.path = new int[n];
+
+		int[] groupSize = new int[this.remaining.length];
+		for (int s = 0; s < n; s++) {
+			if (p.getValue(s) >= 0) groupSize[p.getValue(s)]++;
+		}
+		this.groupSlots = new int[groupSize.length][];
+		for (int v = 0; v < groupSize.length; v++) {
+			this.groupSlots[v] = new int[groupSize[v]];
+			groupSize[v] = 0;
+		}
+
+		for (int s = 0; s < n; s++) {
+			if (p.getValue(s) >= 0) this.groupSlots[p.getValue(s)][groupSize[p.getValue(s)]++] = s;
+			/* Tiles high up the board and blocking many others are removed first. */
+			this.score[s] = 4 * layout.getZ(s) + layout.getBelow(s).length
+					+ layout.getLeft(s).length + layout.getRight(s).length;
+			if (p.isPresent(s) && (p.getValue(s) >= 0)) this.remaining[p.getValue(s)]++;
+		}
+	}
+
+	/** Solves the position of a board.
+	 * @param b Board to solve (It is not modified).
+	 * @return Result of the search.
+	 */
+	public static Result solve(Board b) {
+		return new Solver(b.getPosition()).solve();
+	}
+
+	/** Searches the position.
+	 * @return Result of the search. If the outcome is a win, the result holds the pairs to
+	 * remove to clear the board.
+	 */
+	public Result solve() {
+		this.nodes = 0;
+		this.aborted = false;
+		this.cancelled = false;
+		this.depth = 0;
+
+		for (int v = 0; v < this.remaining.length; v++) {
+			if (this.isStuck(v)) {
+				return new Result(Outcome.LOSS, null, this.nodes);
+			}
+		}
+		/* A bad early choice can trap the search in a large lost subtree, so the search is
+		 * restarted again and again with budgets following the Luby sequence, mostly short
+		 * runs with now and then a longer one, and every run after the first orders its moves
+		 * differently. The positions found lost by each run are kept for the next, so a lost
+		 * position is still proven lost once a run is long enough. */
+		long run = FIRSTRUN;
+		int restarts = 0;
+		this.noise = null;
+		while (true) {
+			this.limit = Math.min(this.nodes + run, this.maxNodes);
+			this.aborted = false;
+			if (this.search()) {
+				int[] moves = new int[this.depth];
+				System.arraycopy(this.path, 0, moves, 0, this.depth);
+				return new Result(Outcome.WIN, moves, this.nodes);
+			}
+			if (!this.aborted) {
+				return new Result(Outcome.LOSS, null, this.nodes);
+			}
+			if (this.cancelled || (this.nodes >= this.maxNodes)) {
+				return new Result(Outcome.UNKNOWN, null, this.nodes);
+			}
+			run = FIRSTRUN * luby(++restarts);
+			if (this.noise == null) this.noise = new Random(NOISESEED);
+		}
+	}
+
+	/** Computes a term of the Luby sequence 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, 1, 1, 2, 4, 8, ...,
+	 * whose terms 2^k - 1 are 2^(k - 1) and which otherwise repeats itself.
+	 * @param i Index of the term, from 1.
+	 * @return The term.
+	 */
+	protected static long luby(long i) {
+		while (true) {
+			int k = 1;
+			while ((1L << k) - 1 < i) k++;
+			if (i == (1L << k) - 1) {
+				return 1L << (k - 1);
+			}
+			i -= (1L << (k - 1)) - 1;
+		}
+	}
+
+	/** Searches the current position. On a win the position is left cleared and the path
+	 * holds the moves that cleared it; otherwise the position is left unchanged.
+	 * @return true if the position can be cleared.
+	 */
+	private boolean search() {
+		if (this.p.isEmpty()) {
+			return true;
+		}
+		if ((this.p.getMatchablePairCount() == 0)
+				|| this.lost.contains(this.p.getCanonicalHash(), this.p.getCanonicalCheck())) {
+			return false;
+		}
+		if (this.nodes++ >= this.limit) {
+			this.aborted = true;
+			return false;
+		}
+		if (((this.nodes & (CHECKINTERVAL - 1)) == 0) && this.isCancelled()) {
+			this.cancelled = true;
+			this.aborted = true;
+			return false;
+		}
+
+		int[] moves = this.moves();
+		for (int i = 0; i < moves.length; i += 2) {
+			this.play(moves[i], moves[i + 1]);
+			if (!this.isStuck(this.p.getValue(moves[i])) && this.search()) {
+				return true;
+			}
+			this.undo(moves[i], moves[i + 1]);
+			if (this.aborted) {
+				return false;
+			}
+		}
+
+		this.lost.add(this.p.getCanonicalHash(), this.p.getCanonicalCheck(), this.p.getTileCount());
+		return false;
+	}
+
+	/** Checks whether the search should be given up for good, because it was stopped, the
+	 * shared budget ran out or the deadline passed.
+	 * @return true if the search should be given up.
+	 */
+	private boolean isCancelled() {
+		if ((this.stop != null) && this.stop.get()) {
+			return true;
+		}
+		if ((this.sharedNodes != null)
+				&& (this.sharedNodes.addAndGet(CHECKINTERVAL) >= this.maxNodes)) {
+			return true;
+		}
+		return (this.deadline != 0) && (System.nanoTime() - this.deadline > 0);
+	}
+
+	/** Checks whether the tiles left in a group can no longer all be removed, because of
+	 * the way they cover each other (See DeadlockDetector.isStuck()).
+	 * @param v Group value.
+	 * @return true if the tiles left in the group cannot be removed in pairs.
+	 */
+	protected boolean isStuck(int v) {
+		int[] left = this.left;
+		int k = 0;
+		for (int s : this.groupSlots[v]) {
+			if (this.p.isPresent(s)) {
+				if (k == left.length) return false;
+				left[k++] = s;
+			}
+		}
+		return DeadlockDetector.isStuck(this.p.getLayout(), left, k);
+	}
+
+	/** Lists the pairs worth trying in the current position, best first.
+	 * @return Slots of the pairs, where the slots at indices 2k and 2k + 1 form a pair.
+	 */
+	protected int[] moves() {
+		int count = 0;
+		for (int v = 0; v < this.p.getGroupCount(); v++) {
+			int f = this.p.getGroupFreeCount(v);
+			/* When every tile left in a group is free, removing two of them only frees
+			 * other tiles, so no other pair needs to be tried. */
+			if ((f >= 2) && (f == this.remaining[v])) {
+				return new int[] { this.p.getGroupFree(v, 0), this.p.getGroupFree(v, 1) };
+			}
+			count += f * (f - 1) / 2;
+		}
+
+		int[] moves = new int[2 * count];
+		int[] scores = new int[count];
+		int k = 0;
+		for (int v = 0; v < this.p.getGroupCount(); v++) {
+			int f = this.p.getGroupFreeCount(v);
+			for (int i = 0; i < f; i++) {
+				for (int j = i + 1; j < f; j++) {
+					int s1 = this.p.getGroupFree(v, i);
+					int s2 = this.p.getGroupFree(v, j);
+					int sc = this.score[s1] + this.score[s2];
+					if (this.noise != null) sc += this.noise.nextInt(NOISE);
+					/* Insertion sort by decreasing score; there are only a few pairs. */
+					int m = k++;
+					while ((m > 0) && (scores[m - 1] < sc)) {
+						scores[m] = scores[m - 1];
+						moves[2 * m] = moves[2 * m - 2];
+						moves[2 * m + 1] = moves[2 * m - 1];
+						m--;
+					}
+					scores[m] = sc;
+					moves[2 * m] = s1;
+					moves[2 * m + 1] = s2;
+				}
+			}
+		}
+		return moves;
+	}
+
+	/** Removes a pair of tiles.
+	 * @param s1 Slot of the first tile.
+	 * @param s2 Slot of the second tile.
+	 */
+	protected void play(int s1, int s2) {
+		this.p.remove(s1);
+		this.p.remove(s2);
+		this.remaining[this.p.getValue(s1)] -= 2;
+		this.path[this.depth++] = s1;
+		this.path[this.depth++] = s2;
+	}
+
+	/** Puts back a pair of tiles removed by play().
+	 * @param s1 Slot of the first tile.
+	 * @param s2 Slot of the second tile.
+	 */
+	protected void undo(int s1, int s2) {
+		this.depth -= 2;
+		this.remaining[this.p.getValue(s1)] += 2;
+		this.p.restore(s2);
+		this.p.restore(s1);
+	}
+
+	/** Sets a time limit on the search.
+	 * @param deadline Value of System.nanoTime() after which the search is given up, or 0
+	 * for no limit.
+	 */
+	protected void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/** Getter.
+	 * @return The position being searched (Not a copy).
+	 */
+	protected Position getPosition() {
+		return this.p;
+	}
+
+	/** Getter.
+	 * @return Canonical hash of the position being searched, under which it is kept in the
+	 * transposition table.
+	 */
+	protected long getHash() {
+		return this.p.getCanonicalHash();
+	}
+
+	/** Getter.
+	 * @return Verification key of the position being searched, stored with its hash in the
+	 * transposition table.
+	 */
+	protected long getCheck() {
+		return this.p.getCanonicalCheck();
+	}
+
+}
@@ -0,0 +1,28 @@
+package mahjong;
+
+/** Set of the hashes of positions known to be lost, shared by the searches of a solver (See
+ * Solver). Entries may be dropped to keep within a fixed size, so a hash that was added may
+ * later be missing, but a hash that was never added is never reported as present.
+ * Each position is looked up by its canonical hash and verified by its second canonical hash
+ * (See Position.getCanonicalCheck()), so that a collision of the first alone never makes a
+ * winnable position look lost.
+ */
+public interface TranspositionTable {
+
+	/** Checks whether a position is known to be lost.
+	 * @param hash Hash of the position.
+	 * @param check Verification key of the position.
+	 * @return true if the hash was added with the same verification key and has not been
+	 * dropped since.
+	 */
+	public boolean contains(long hash, long check);
+
+	/** Records that a position is lost.
+	 * @param hash Hash of the position.
+	 * @param check Verification key of the position.
+	 * @param depth Number of tiles left in the position, which measures how much search
+	 * the entry saves.
+	 */
+	public void add(long hash, long check, int depth);
+
+}
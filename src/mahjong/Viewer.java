@@ -44,6 +44,8 @@ public class Viewer extends JPanel {
 	private GameStatus gameStatus;
 	private TimerLabel timerLabel;
 	private MoveList moveList;
+	private HintEngine hintEngine;
+	private WinMeterLabel winMeter;
 	private HighScoreManager highScoreManager;
 	private boolean canEnterHighScore;
 	private boolean displayHighScores;
@@ -62,6 +64,12 @@ public class Viewer extends JPanel {
 		(this.gameStatus).updateStatus();
 		this.timerLabel = t;
 		this.moveList = new MoveList(b);
+		this.hintEngine = new HintEngine(b);
+		(this.hintEngine).setHintListener(new Runnable() {
+			public void run() {
+				repaint();
+			}
+		});
 		String layoutTitle = LayoutSelector.getLayoutTitle((b.getLayoutFile().substring((LayoutSelector.LAYOUTDIR + java.io.File.separator).length())));
 		this.highScoreManager = new HighScoreManager(layoutTitle);
 		this.canEnterHighScore = true;
@@ -155,11 +163,13 @@ public class Viewer extends JPanel {
 	 * @throws IOException
 	 */
 	public void reset() throws IOException {
+		(this.hintEngine).clear();
 		b.reset();
 		(this.gameStatus).reset();
 		(this.vMouseListener).resetFirstClick();
 		(this.timerLabel).reset();
 		(this.moveList).reset();
+		if (this.winMeter != null) (this.winMeter).reset();
 		String layoutTitle = LayoutSelector.getLayoutTitle((b.getLayoutFile().substring((LayoutSelector.LAYOUTDIR + java.io.File.separator).length())));
 		this.highScoreManager = new HighScoreManager(layoutTitle);
 		this.canEnterHighScore = true;
@@ -175,11 +185,15 @@ public class Viewer extends JPanel {
 		super.paintComponent(graphics);
 
 		Tile[][][] content = (this.b).getContent();
-		ArrayList<Tile> removableTiles = (this.b).getRemovableTiles();
 		
 		if ((content == null) || (this.tileImages == null)) return;
 
 		if ((this.layoutSelector).getLayoutSelected()) {
+			/* In hint mode the recommended move, if one is known, is highlighted instead of
+			 * every removable tile. */
+			Tile[] hint = null;
+			if (this.isHintModeOn() && (this.gameStatus).isPlaying()) hint = (this.hintEngine).peekHint();
+			
 			/* Draw tiles back to front. */
 			for (int z = 0; z < content.length; z++) {
 				for (int y = 0; y < content[z].length; y++) {
@@ -197,7 +211,9 @@ public class Viewer extends JPanel {
 							Image image = tileImages[val][subInd];
 							if (b.free(t)) {
 								image = tileImagesHL[val][subInd];
-								if (this.isHintModeOn() && removableTiles.contains(t)) {
+								if (hint != null) {
+									if ((t == hint[0]) || (t == hint[1])) image = this.tileImagesHint1[val][subInd];
+								} else if (this.isHintModeOn() && (this.b).isRemovable(t)) {
 									if ((this.b).isPartOfQuadrupleMatching(t)) image = this.tileImagesHint1[val][subInd];
 									else image = this.tileImagesHint2[val][subInd];
 								}
@@ -372,6 +388,7 @@ public class Viewer extends JPanel {
 	
 	public void toggleHintMode () {
 		(this.gameStatus).toggleHintMode();
+		if (this.isHintModeOn() && this.isPlaying()) (this.hintEngine).requestHint();
 	}
 	
 	public void redoMove () {
@@ -418,6 +435,19 @@ public class Viewer extends JPanel {
 		return this.timerLabel;
 	}
 	
+	public HintEngine getHintEngine () {
+		return this.hintEngine;
+	}
+	
+	/** Setter.
+	 * @param winMeter Label showing the chance of winning the game, which is reset along with
+	 * the game and shows 0% once the game is lost.
+	 */
+	protected void setWinMeter (WinMeterLabel winMeter) {
+		this.winMeter = winMeter;
+		winMeter.setGameStatus(this.gameStatus);
+	}
+	
 	public HighScoreManager getHighScoreManager () {
 		return this.highScoreManager;
 	}
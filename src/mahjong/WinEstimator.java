@@ -0,0 +1,220 @@
+package mahjong;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/** Estimates the chance that the position on a board can still be won, by Monte-Carlo
+ * rollouts run on a background thread (See DifficultyRater). The estimate is refined
+ * batch by batch for as long as the position does not change, up to a rollout budget.
+ * Rollouts are tallied for the position they start from and for the position reached by
+ * their first move, by canonical hash, so after a move the estimate starts from the
+ * rollouts already played through the new position, and going back to an earlier
+ * position restores its estimate. The thread sleeps between batches so that it uses no
+ * more than a given share of a processor.
+ */
+public class WinEstimator implements BoardListener {
+	/** Default share of a processor used by the rollouts. */
+	public static final double CPUSHARE = 0.25;
+	/** Number of rollouts played from a position before the estimate is left as it is. */
+	public static final int MAXROLLOUTS = DifficultyRater.MAXROLLOUTS;
+	/** Maximum number of positions tallied. */
+	public static final int CACHESIZE = 4096;
+	/** Number of rollouts between two updates of the estimate. */
+	private static final int BATCH = 32;
+
+	/** Way of choosing the moves of the rollouts. */
+	private final DifficultyRater.Rollout rollout;
+	/** Number of rollouts and of wins for each tallied position, in least recently used
+	 * order. */
+	private final LinkedHashMap<Long, int[]> tallies;
+	/** Thread playing the rollouts. */
+	private final Thread worker;
+	/** Share of a processor used by the rollouts. */
+	private volatile double cpuShare;
+
+	/** Position estimated, or null if there is none. */
+	private Position current;
+
+	/** Constructor. The estimator listens to the moves made on the board (See BoardListener)
+	 * and starts estimating its position at once.
+	 * @param b Board to estimate.
+	 * @param rollout Way of choosing the moves of the rollouts.
+	 * @param cpuShare Share of a processor used by the rollouts, between 0 and 1.
+	 */
+	public WinEstimator(Board b, DifficultyRater.Rollout rollout, double cpuShare) {
+		this.rollout = rollout;
+		this.setCpuShare(cpuShare);
+		this.tallies = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+				return size() > CACHESIZE;
+			}
+		};
+		this.boardChanged(b);
+		b.addBoardListener(this);
+
+		this.worker = new Thread(new Runnable() {
+			public void run() {
+				try {
+					estimate();
+				} catch (InterruptedException e) {
+					/* The estimator was stopped. */
+				}
+			}
+		}, "WinEstimator");
+		(this.worker).setDaemon(true);
+		(this.worker).setPriority(Thread.MIN_PRIORITY);
+		(this.worker).start();
+	}
+
+	/** Restarts the estimate from the new position of the board, unless the board is half
+	 * way through a move.
+	 * @param b Board that changed.
+	 */
+	public void boardChanged(Board b) {
+		Position p = b.getPosition();
+		if (p.getTileCount() % 2 != 0) {
+			return;
+		}
+		synchronized (this) {
+			this.current = p;
+			this.notifyAll();
+		}
+	}
+
+	/** Getter.
+	 * @return Estimate of the chance of winning the current position, or null if no rollout
+	 * has been played from it yet.
+	 */
+	public synchronized DifficultyRater.Rating getEstimate() {
+		if (this.current == null) {
+			return null;
+		}
+		if (this.current.isEmpty()) {
+			return new DifficultyRater.Rating(1, 1);
+		}
+		if (this.current.getMatchablePairCount() == 0) {
+			return new DifficultyRater.Rating(1, 0);
+		}
+		int[] t = (this.tallies).get(this.current.getCanonicalHash());
+		return (t == null) ? null : new DifficultyRater.Rating(t[0], t[1]);
+	}
+
+	/** Plays batches of rollouts from the current position, for as long as the estimator
+	 * runs.
+	 * @throws InterruptedException When the estimator is stopped.
+	 */
+	private void estimate() throws InterruptedException {
+		SplittableRandom r = new SplittableRandom();
+		long[] children = new long[BATCH];
+		boolean[] won = new boolean[BATCH];
+
+		while (true) {
+			Position p;
+			synchronized (this) {
+				while (!this.needsRollouts()) {
+					this.wait();
+				}
+				p = this.current;
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < BATCH; i++) {
+				Position q = new Position(p);
+				int[] pairs = Player.pairs(q);
+				int j = DifficultyRater.choose(q, this.rollout, pairs, r);
+				q.remove(pairs[j]);
+				q.remove(pairs[j + 1]);
+				children[i] = q.getCanonicalHash();
+				won[i] = DifficultyRater.playOut(q, this.rollout, r);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			/* Tallies are kept by position, so a batch finished after a move still counts,
+			 * for the position it started from and for the one the move led to. */
+			synchronized (this) {
+				this.tally(p.getCanonicalHash(), won);
+				for (int i = 0; i < BATCH; i++) {
+					this.tally(children[i], won[i]);
+				}
+			}
+
+			/* Sleeping (1 - share) / share times as long as the batch took keeps the thread
+			 * at the given share of a processor. */
+			double share = this.cpuShare;
+			if (share < 1) {
+				long pause = (long) (elapsed * (1 - share) / share);
+				Thread.sleep(pause / 1000000, (int) (pause % 1000000));
+			}
+		}
+	}
+
+	/** Checks whether more rollouts should be played from the current position. (The
+	 * caller holds the estimator's lock.)
+	 * @return true if the position is not over and its rollout budget is not spent.
+	 */
+	private boolean needsRollouts() {
+		if ((this.current == null) || (this.current.getMatchablePairCount() == 0)) {
+			return false;
+		}
+		int[] t = (this.tallies).get(this.current.getCanonicalHash());
+		return (t == null) || (t[0] < MAXROLLOUTS);
+	}
+
+	/** Adds the outcomes of a batch of rollouts to the tally of a position. (The caller
+	 * holds the estimator's lock.)
+	 * @param h Canonical hash of the position.
+	 * @param won Whether each rollout cleared the board.
+	 */
+	private void tally(long h, boolean[] won) {
+		for (boolean w : won) {
+			this.tally(h, w);
+		}
+	}
+
+	/** Adds the outcome of a rollout to the tally of a position. (The caller holds the
+	 * estimator's lock.)
+	 * @param h Canonical hash of the position.
+	 * @param won Whether the rollout cleared the board.
+	 */
+	private void tally(long h, boolean won) {
+		int[] t = (this.tallies).get(h);
+		if (t == null) {
+			t = new int[2];
+			(this.tallies).put(h, t);
+		}
+		t[0]++;
+		if (won) t[1]++;
+	}
+
+	/** Empties the tallies, e.g. when the board is dealt again from another layout. */
+	public synchronized void clear() {
+		(this.tallies).clear();
+		this.notifyAll();
+	}
+
+	/** Stops the background thread for good. */
+	public void stop() {
+		(this.worker).interrupt();
+	}
+
+	/** Getter.
+	 * @return Share of a processor used by the rollouts.
+	 */
+	public double getCpuShare() {
+		return this.cpuShare;
+	}
+
+	/** Setter.
+	 * @param cpuShare Share of a processor used by the rollouts, between 0 (exclusive) and 1.
+	 */
+	public void setCpuShare(double cpuShare) {
+		if ((cpuShare <= 0) || (cpuShare > 1)) {
+			throw new IllegalArgumentException("CPU share must be in (0, 1]: " + cpuShare);
+		}
+		this.cpuShare = cpuShare;
+	}
+
+}
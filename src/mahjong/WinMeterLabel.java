@@ -0,0 +1,77 @@
+package mahjong;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JLabel;
+import javax.swing.Timer;
+
+/** Label showing the estimated chance that the game on a board can still be won (See
+ * WinEstimator). The estimate is computed on a background thread; the label only reads
+ * the latest one, on a timer, so it never waits for the rollouts.
+ */
+@SuppressWarnings("serial")
+public class WinMeterLabel extends JLabel {
+	/** Milliseconds between two updates of the label. */
+	protected static final int REFRESHMILLIS = 500;
+
+	private WinEstimator estimator;
+	private Timer timer;
+	/** Status of the game shown, or null. */
+	private GameStatus gameStatus;
+
+	/** Constructor.
+	 * @param b Board whose game is estimated.
+	 */
+	public WinMeterLabel (Board b) {
+		super("Chance of Winning: ?", CENTER);
+		this.estimator = new WinEstimator(b, DifficultyRater.Rollout.GREEDY, WinEstimator.CPUSHARE);
+		this.initTimer();
+		this.setFont(new Font("Monospaced", Font.BOLD, 15));
+		this.setBackground(Color.red);
+		this.setForeground(Color.yellow);
+	}
+
+	private void initTimer() {
+		final WinMeterLabel wl = this;
+		ActionListener al = new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				wl.refresh();
+			}
+		};
+		this.timer = new Timer(REFRESHMILLIS, al);
+		(this.timer).start();
+	}
+
+	/** Shows the latest estimate, or 0% once the game is known to be lost. */
+	public void refresh () {
+		DifficultyRater.Rating r = (this.estimator).getEstimate();
+		if ((this.gameStatus != null) && ((this.gameStatus).getStatus() == GameStatus.Status.DEADLOCK)) {
+			this.setText(String.format("Chance of Winning: %3.0f%%", 0.0));
+		} else if (r == null) {
+			this.setText("Chance of Winning: ?");
+		} else {
+			this.setText(String.format("Chance of Winning: %3.0f%%", 100 * r.getWinProbability()));
+		}
+	}
+
+	/** Forgets the estimates, e.g. when a new game is dealt. */
+	public void reset () {
+		(this.estimator).clear();
+		this.refresh();
+	}
+
+	public WinEstimator getEstimator () {
+		return this.estimator;
+	}
+
+	/** Setter.
+	 * @param gameStatus Status of the game shown, so that a lost game shows no chance of
+	 * winning even before the rollouts are played.
+	 */
+	public void setGameStatus (GameStatus gameStatus) {
+		this.gameStatus = gameStatus;
+	}
+}